@@ -0,0 +1,45 @@
+package cn.lihongjie.collection;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 领了下标但是永远不会写入的位置
+ * <p>
+ * 只追加的 list 先领下标再写入, 写线程在两步之间失败(比如分配新的一段的时候 OutOfMemoryError)的话, 这些位置永远不会写入,
+ * 等它们的读线程会一直自旋. 写线程失败的时候把领到的下标记在这里, 读线程自旋的时候隔一段时间检查一次, 等的位置被放弃了就抛出 IllegalStateException.
+ * 正常情况下这里是空的, 检查只是一次 isEmpty
+ *
+ * @author 982264618@qq.com
+ */
+final class AbandonedClaims {
+
+	private final Queue<int[]> ranges = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * 写线程领到了 [from, from + n), 但是没有全部写完
+	 */
+	void add(int from, int n) {
+		ranges.add(new int[]{from, from + n});
+	}
+
+	/**
+	 * 等 index 写入的第 iteration 次自旋, 每 64 次 yield 一次, 顺便看看 index 是不是被放弃了
+	 */
+	void spin(int iteration, int index) {
+		if ((iteration & 63) == 63) {
+			Thread.yield();
+			if (!ranges.isEmpty()) {
+				check(index);
+			}
+		}
+	}
+
+	private void check(int index) {
+		for (int[] range : ranges) {
+			if (index >= range[0] && index < range[1]) {
+				throw new IllegalStateException("element " + index + " was claimed by a writer that failed");
+			}
+		}
+	}
+}
@@ -0,0 +1,255 @@
+package cn.lihongjie.collection;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 批量提交写操作的写时复制 list
+ * <p>
+ * testCopyOnWriteArrayListConcurrentAppend 说 CopyOnWriteArrayList 只写不读的时候性能很差, 因为每次 add 都要复制整个数组.
+ * 这里写线程先把操作放进队列, 再 tryLock 提交锁; 抢到锁的线程把队列里所有的操作一起做完, 只复制一次数组(group commit), 再唤醒这些操作的线程.
+ * 没抢到的线程不排队等锁, 而是休眠等自己的操作被别人做完; 被唤醒或者超时之后操作还没做完(在上一批取完队列之后才放进来)就再 tryLock.
+ * 所以提交锁只在提交的线程之间传递, 不会每个操作轮流拿一次锁. 写得越多, 每一批越大, 平均每个操作分摊的复制越少.
+ * addAll 把所有元素作为一个操作放进队列, 一次提交, 只复制一次数组
+ * <p>
+ * 读和 CopyOnWriteArrayList 一样不加锁, 读 volatile 的数组. 要读多次的操作(迭代器, indexOf, lastIndexOf, subList, equals)
+ * 开始的时候只读一次数组, 之后都在这个快照上做, 不会因为中间有别的线程 clear 或者 remove 越界; 快照是只读的.
+ * add 和 remove(Object) 返回的时候, 修改已经对所有读线程可见
+ * <p>
+ * add(int, E) / set / remove(int) 等按下标的修改不支持
+ *
+ * @author 982264618@qq.com
+ */
+public class BatchingCopyOnWriteList<E> extends AbstractList<E> {
+
+	/**
+	 * 没抢到锁的时候最多休眠这么久, 防止刚好在提交的线程取完队列之后才放进来, 又没有人唤醒
+	 */
+	private static final long PARK_NANOS = 50_000;
+
+	private final ReentrantLock commitLock = new ReentrantLock();
+	private final Queue<Op> pending = new ConcurrentLinkedQueue<>();
+	private volatile Object[] array = new Object[0];
+
+	/**
+	 * 只在提交锁里面写
+	 */
+	private volatile long commits;
+	private volatile long committed;
+
+	@Override
+	public boolean add(E e) {
+		return submit(new Op(e, null, false));
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends E> c) {
+		Object[] elements = c.toArray();
+		return elements.length > 0 && submit(new Op(null, elements, false));
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		return submit(new Op(o, null, true));
+	}
+
+	@Override
+	public void clear() {
+		commitLock.lock();
+		try {
+			commit();
+			array = new Object[0];
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public E get(int index) {
+		Object[] a = array;
+		if (index < 0 || index >= a.length) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + a.length);
+		}
+		return (E) a[index];
+	}
+
+	@Override
+	public int size() {
+		return array.length;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Iterator<E> iterator() {
+		return (Iterator<E>) Arrays.asList(array).iterator();
+	}
+
+	@Override
+	public ListIterator<E> listIterator(int index) {
+		return snapshot().listIterator(index);
+	}
+
+	@Override
+	public int indexOf(Object o) {
+		return Arrays.asList(array).indexOf(o);
+	}
+
+	@Override
+	public int lastIndexOf(Object o) {
+		return Arrays.asList(array).lastIndexOf(o);
+	}
+
+	@Override
+	public List<E> subList(int fromIndex, int toIndex) {
+		return snapshot().subList(fromIndex, toIndex);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o == this || snapshot().equals(o);
+	}
+
+	@Override
+	public int hashCode() {
+		return snapshot().hashCode();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void forEach(Consumer<? super E> action) {
+		for (Object e : array) {
+			action.accept((E) e);
+		}
+	}
+
+	@Override
+	public Object[] toArray() {
+		Object[] a = array;
+		return Arrays.copyOf(a, a.length);
+	}
+
+	/**
+	 * 当前数组的只读 list 视图, 数组本身不会再被修改, 所以不用复制
+	 */
+	@SuppressWarnings("unchecked")
+	private List<E> snapshot() {
+		return (List<E>) Collections.unmodifiableList(Arrays.asList(array));
+	}
+
+	/**
+	 * 提交的批数
+	 */
+	public long commits() {
+		return commits;
+	}
+
+	/**
+	 * 平均每批提交了多少个操作
+	 */
+	public double averageBatch() {
+		long c = commits;
+		return c == 0 ? 0 : (double) committed / c;
+	}
+
+	private boolean submit(Op op) {
+		pending.add(op);
+		while (!op.done) {
+			if (commitLock.tryLock()) {
+				try {
+					commit();
+				} finally {
+					commitLock.unlock();
+				}
+			} else {
+				LockSupport.parkNanos(this, PARK_NANOS);
+			}
+		}
+		return op.result;
+	}
+
+	/**
+	 * 取出队列里所有的操作, 复制一次数组做完. 只有 add 的时候直接在新数组的末尾追加, 有 remove 的时候按顺序在 ArrayList 上做
+	 */
+	private void commit() {
+		List<Op> batch = new ArrayList<>();
+		boolean removes = false;
+		int added = 0;
+		for (Op op; (op = pending.poll()) != null; ) {
+			batch.add(op);
+			removes |= op.remove;
+			added += op.size();
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+		Object[] current = array;
+		Object[] next;
+		if (!removes) {
+			next = Arrays.copyOf(current, current.length + added);
+			int length = current.length;
+			for (Op op : batch) {
+				if (op.elements == null) {
+					next[length++] = op.element;
+				} else {
+					System.arraycopy(op.elements, 0, next, length, op.elements.length);
+					length += op.elements.length;
+				}
+				op.result = true;
+			}
+		} else {
+			List<Object> list = new ArrayList<>(Arrays.asList(current));
+			for (Op op : batch) {
+				if (op.remove) {
+					op.result = list.remove(op.element);
+				} else if (op.elements == null) {
+					op.result = list.add(op.element);
+				} else {
+					op.result = list.addAll(Arrays.asList(op.elements));
+				}
+			}
+			next = list.toArray();
+		}
+		array = next;
+		commits = commits + 1;
+		committed = committed + batch.size();
+		// result 在 done 之前写, done 是 volatile 的, 提交的线程看到 done 就能看到 result
+		for (Op op : batch) {
+			op.done = true;
+			LockSupport.unpark(op.thread);
+		}
+	}
+
+	/**
+	 * add / remove 一个元素, 或者 addAll 的一批元素(elements 不为 null)
+	 */
+	private static final class Op {
+		final Object element;
+		final Object[] elements;
+		final boolean remove;
+		final Thread thread = Thread.currentThread();
+		boolean result;
+		volatile boolean done;
+
+		Op(Object element, Object[] elements, boolean remove) {
+			this.element = element;
+			this.elements = elements;
+			this.remove = remove;
+		}
+
+		int size() {
+			return remove ? 0 : elements == null ? 1 : elements.length;
+		}
+	}
+}
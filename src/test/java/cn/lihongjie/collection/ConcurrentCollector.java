@@ -0,0 +1,210 @@
+package cn.lihongjie.collection;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 多线程收集元素, 最后一起取出, 不关心线程之间的顺序
+ * <p>
+ * ListTest.concurrentAppend 只关心最后的数量和内容. 这里每个线程往自己的 chunk 里追加, chunk 只有自己能看到, 追加是普通的数组写,
+ * 没有任何共享变量的读写. chunk 写满之后才 CAS 一次挂到全局的链表上(retire), 再换一个新的 chunk.
+ * <p>
+ * drain 把链表上的 chunk 和每个线程还没写满的 chunk 一起取走, 拼成一个只读的 list, 不复制元素, 代价和 chunk 的数量成正比.
+ * 没写满的 chunk 是生产线程私有的, 所以 drain 之前生产线程必须已经停止, 并且和 drain 的线程之间有 happens-before(比如 CountDownLatch, join).
+ * 生产线程还在运行的时候, 可以让它们先调用 flush 把自己的 chunk 挂到链表上, 再用 drainRetired 只取链表上的
+ * <p>
+ * 每个线程第一次 add 的时候登记自己的缓冲区, 线程结束之后缓冲区里的数据仍然可以被 drain 取走.
+ * drain 和 drainRetired 看到线程已经结束(isAlive 返回 false 之后线程里的写都是可见的)就把它剩下的数据取走, 并且去掉它的缓冲区,
+ * 所以缓冲区的个数和正在运行的生产线程数成正比, 不会随着用过的线程越来越多. 取走之后新的 chunk 等下一次 add 才分配, drain 本身不分配
+ *
+ * @author 982264618@qq.com
+ */
+public class ConcurrentCollector<E> {
+
+	private final int chunkSize;
+	private final AtomicReference<Chunk> retired = new AtomicReference<>();
+	private final Queue<Buffer> buffers = new ConcurrentLinkedQueue<>();
+	private final ThreadLocal<Buffer> buffer = ThreadLocal.withInitial(this::register);
+
+	public ConcurrentCollector() {
+		this(1024);
+	}
+
+	public ConcurrentCollector(int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be positive");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	private Buffer register() {
+		Buffer b = new Buffer(Thread.currentThread());
+		buffers.add(b);
+		return b;
+	}
+
+	public void add(E e) {
+		Buffer b = buffer.get();
+		if (b.items == null) {
+			b.items = new Object[chunkSize];
+		}
+		b.items[b.size++] = e;
+		if (b.size == b.items.length) {
+			retire(b.items, b.size);
+			b.items = null;
+			b.size = 0;
+		}
+	}
+
+	/**
+	 * 生产线程把自己没写满的 chunk 挂到链表上, 之后的 drain 不需要等这个线程停止就能取到
+	 */
+	public void flush() {
+		Buffer b = buffer.get();
+		if (b.size > 0) {
+			retire(b.items, b.size);
+			b.items = null;
+			b.size = 0;
+		}
+	}
+
+	/**
+	 * 取走所有线程的数据, 收集器变为空
+	 * <p>
+	 * 生产线程必须已经停止; 生产线程还在运行的时候只能用 drainRetired
+	 */
+	public List<E> drain() {
+		List<Object[]> chunks = new ArrayList<>();
+		List<Integer> sizes = new ArrayList<>();
+		takeRetired(chunks, sizes);
+		takeBuffers(chunks, sizes, true);
+		return ChunkedList.of(chunks, sizes);
+	}
+
+	/**
+	 * 只取走已经挂到链表上的 chunk 和已经结束的线程剩下的数据, 生产线程运行的时候也可以调用
+	 */
+	public List<E> drainRetired() {
+		List<Object[]> chunks = new ArrayList<>();
+		List<Integer> sizes = new ArrayList<>();
+		takeRetired(chunks, sizes);
+		takeBuffers(chunks, sizes, false);
+		return ChunkedList.of(chunks, sizes);
+	}
+
+	/**
+	 * 登记过的缓冲区个数, 测试用
+	 */
+	int bufferCount() {
+		return buffers.size();
+	}
+
+	/**
+	 * 取走缓冲区里没写满的 chunk, 已经结束的线程的缓冲区取完之后去掉. all 为 false 的时候只取已经结束的线程的
+	 */
+	private void takeBuffers(List<Object[]> chunks, List<Integer> sizes, boolean all) {
+		for (Iterator<Buffer> it = buffers.iterator(); it.hasNext(); ) {
+			Buffer b = it.next();
+			boolean dead = !b.owner.isAlive();
+			if (!dead && !all) {
+				continue;
+			}
+			if (b.size > 0) {
+				chunks.add(b.items);
+				sizes.add(b.size);
+				b.items = null;
+				b.size = 0;
+			}
+			if (dead) {
+				it.remove();
+			}
+		}
+	}
+
+	private void takeRetired(List<Object[]> chunks, List<Integer> sizes) {
+		for (Chunk c = retired.getAndSet(null); c != null; c = c.next) {
+			chunks.add(c.items);
+			sizes.add(c.size);
+		}
+	}
+
+	private void retire(Object[] items, int size) {
+		Chunk c = new Chunk(items, size);
+		Chunk head;
+		do {
+			head = retired.get();
+			c.next = head;
+		} while (!retired.compareAndSet(head, c));
+	}
+
+	/**
+	 * 只有所属的线程会读写, drain 的时候生产线程已经停止. items 为 null 表示还没有分配
+	 */
+	private static final class Buffer {
+		final Thread owner;
+		Object[] items;
+		int size;
+
+		Buffer(Thread owner) {
+			this.owner = owner;
+		}
+	}
+
+	private static final class Chunk {
+		final Object[] items;
+		final int size;
+		Chunk next;
+
+		Chunk(Object[] items, int size) {
+			this.items = items;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * 多个数组拼成的只读 list, offsets[i] 是第 i 个数组第一个元素的下标, get 用二分查找.
+	 * 挂到链表上的 chunk 都不是空的, 所以 offsets 是严格递增的
+	 */
+	private static final class ChunkedList<E> extends AbstractList<E> {
+
+		private final Object[][] chunks;
+		private final int[] offsets;
+
+		private ChunkedList(Object[][] chunks, int[] offsets) {
+			this.chunks = chunks;
+			this.offsets = offsets;
+		}
+
+		static <E> ChunkedList<E> of(List<Object[]> chunks, List<Integer> sizes) {
+			int[] offsets = new int[chunks.size() + 1];
+			for (int i = 0; i < chunks.size(); i++) {
+				offsets[i + 1] = offsets[i] + sizes.get(i);
+			}
+			return new ChunkedList<>(chunks.toArray(new Object[0][]), offsets);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public E get(int index) {
+			if (index < 0 || index >= size()) {
+				throw new IndexOutOfBoundsException(String.valueOf(index));
+			}
+			int chunk = Arrays.binarySearch(offsets, index);
+			if (chunk < 0) {
+				chunk = -chunk - 2;
+			}
+			return (E) chunks[chunk][index - offsets[chunk]];
+		}
+
+		@Override
+		public int size() {
+			return offsets[chunks.length];
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package cn.lihongjie.collection;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongConsumer;
+
+import static cn.lihongjie.collection.SegmentedList.FIRST;
+import static cn.lihongjie.collection.SegmentedList.MAX_SIZE;
+import static cn.lihongjie.collection.SegmentedList.SEGMENTS;
+import static cn.lihongjie.collection.SegmentedList.segmentOf;
+
+/**
+ * 多线程追加的 LongList, 和 ConcurrentIntList 一样, 元素是 long
+ *
+ * @author 982264618@qq.com
+ */
+public class ConcurrentLongList implements LongList {
+
+	private final AtomicReferenceArray<Segment> segments = new AtomicReferenceArray<>(SEGMENTS);
+	private final AtomicInteger size = new AtomicInteger();
+	private final AbandonedClaims abandoned = new AbandonedClaims();
+
+	@Override
+	public void add(long value) {
+		int index = claim(1);
+		try {
+			int pos = index + FIRST;
+			int segment = segmentOf(pos);
+			Segment s = segment(segment);
+			int offset = pos - (FIRST << segment);
+			s.values[offset] = value;
+			s.written.publish(offset, 1);
+		} catch (RuntimeException | Error e) {
+			abandoned.add(index, 1);
+			throw e;
+		}
+	}
+
+	@Override
+	public void addAll(long[] values) {
+		int index = claim(values.length);
+		try {
+			int pos = index + FIRST;
+			int copied = 0;
+			while (copied < values.length) {
+				int segment = segmentOf(pos);
+				Segment s = segment(segment);
+				int offset = pos - (FIRST << segment);
+				int n = Math.min(values.length - copied, s.values.length - offset);
+				System.arraycopy(values, copied, s.values, offset, n);
+				s.written.publish(offset, n);
+				copied += n;
+				pos += n;
+			}
+		} catch (RuntimeException | Error e) {
+			abandoned.add(index, values.length);
+			throw e;
+		}
+	}
+
+	@Override
+	public long get(int index) {
+		int size = size();
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		int pos = index + FIRST;
+		int segment = segmentOf(pos);
+		int offset = pos - (FIRST << segment);
+		return awaitWritten(segment, offset, offset + 1).values[offset];
+	}
+
+	/**
+	 * 已经领走的下标数, 包括正在写入的
+	 */
+	@Override
+	public int size() {
+		return Math.min(size.get(), MAX_SIZE);
+	}
+
+	@Override
+	public long[] toArray() {
+		int size = size();
+		long[] array = new long[size];
+		for (int segment = 0, copied = 0; copied < size; segment++) {
+			int n = Math.min(FIRST << segment, size - copied);
+			long[] values = awaitWritten(segment, 0, n).values;
+			System.arraycopy(values, 0, array, copied, n);
+			copied += n;
+		}
+		return array;
+	}
+
+	@Override
+	public void forEach(LongConsumer action) {
+		int size = size();
+		for (int segment = 0, visited = 0; visited < size; segment++) {
+			int n = Math.min(FIRST << segment, size - visited);
+			long[] values = awaitWritten(segment, 0, n).values;
+			for (int i = 0; i < n; i++) {
+				action.accept(values[i]);
+			}
+			visited += n;
+		}
+	}
+
+	private int claim(int n) {
+		int index = size.getAndAdd(n);
+		if (index < 0 || index > MAX_SIZE - n) {
+			size.getAndAdd(-n);
+			throw new IllegalStateException("list is full");
+		}
+		return index;
+	}
+
+	/**
+	 * 等到这一段的 [from, to) 都写完, 只等调用者要读的位置, 别的线程在后面追加不会让读线程多等.
+	 * 写入的顺序和领下标的顺序不一定一样, 所以按位置检查, 每次从上次缺的位置接着找
+	 */
+	private Segment awaitWritten(int segment, int from, int to) {
+		int start = (FIRST << segment) - FIRST;
+		Segment s;
+		for (int i = 0; (s = segments.get(segment)) == null; i++) {
+			abandoned.spin(i, start + from);
+		}
+		for (int i = 0; (from = s.written.firstUnwritten(from, to)) < to; i++) {
+			abandoned.spin(i, start + from);
+		}
+		return s;
+	}
+
+	private Segment segment(int segment) {
+		Segment s = segments.get(segment);
+		if (s == null) {
+			Segment created = new Segment(FIRST << segment);
+			if (segments.compareAndSet(segment, null, created)) {
+				s = created;
+			} else {
+				s = segments.get(segment);
+			}
+		}
+		return s;
+	}
+
+	private static final class Segment {
+		final long[] values;
+		final WrittenBits written;
+
+		Segment(int length) {
+			values = new long[length];
+			written = new WrittenBits(length);
+		}
+	}
+}
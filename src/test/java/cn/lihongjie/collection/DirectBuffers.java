@@ -0,0 +1,63 @@
+package cn.lihongjie.collection;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * 主动释放 direct / mapped ByteBuffer 的内存
+ * <p>
+ * 正常情况下 direct buffer 的内存要等 buffer 对象被 GC 之后才释放, 堆很小的时候可能很久都不会 GC.
+ * JAVA 9 以上用 Unsafe.invokeCleaner, JAVA 8 用 DirectBuffer.cleaner().clean(), 都是通过反射调用, 都找不到的时候什么也不做, 仍然交给 GC.
+ * <p>
+ * 释放之后再访问 buffer 会让 JVM 崩溃, 调用者必须保证没有线程还在使用
+ *
+ * @author 982264618@qq.com
+ */
+final class DirectBuffers {
+
+	private static final Cleaner CLEANER = cleaner();
+
+	private DirectBuffers() {
+	}
+
+	static void release(ByteBuffer buffer) {
+		if (buffer != null && buffer.isDirect()) {
+			try {
+				CLEANER.clean(buffer);
+			} catch (Exception e) {
+				// 释放不了就交给 GC
+			}
+		}
+	}
+
+	private interface Cleaner {
+		void clean(ByteBuffer buffer) throws Exception;
+	}
+
+	private static Cleaner cleaner() {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			Object unsafe = field.get(null);
+			return buffer -> invokeCleaner.invoke(unsafe, buffer);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// JAVA 8 没有 invokeCleaner
+		}
+		try {
+			Method cleanerMethod = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+			Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			return buffer -> {
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					clean.invoke(cleaner);
+				}
+			};
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return buffer -> {
+			};
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package cn.lihongjie.collection;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * 单线程的 IntList, 和 ArrayList 一样, 满了之后扩容 1.5 倍
+ *
+ * @author 982264618@qq.com
+ */
+public class IntArrayList implements IntList {
+
+	private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+	private int[] elements;
+	private int size;
+
+	public IntArrayList() {
+		this(10);
+	}
+
+	public IntArrayList(int initialCapacity) {
+		elements = new int[initialCapacity];
+	}
+
+	@Override
+	public void add(int value) {
+		ensureCapacity(size + 1);
+		elements[size++] = value;
+	}
+
+	@Override
+	public void addAll(int[] values) {
+		ensureCapacity(size + values.length);
+		System.arraycopy(values, 0, elements, size, values.length);
+		size += values.length;
+	}
+
+	@Override
+	public int get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		return elements[index];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int[] toArray() {
+		return Arrays.copyOf(elements, size);
+	}
+
+	@Override
+	public void forEach(IntConsumer action) {
+		for (int i = 0; i < size; i++) {
+			action.accept(elements[i]);
+		}
+	}
+
+	private void ensureCapacity(int required) {
+		if (required < 0 || required > MAX_SIZE) {
+			throw new IllegalStateException("list is full");
+		}
+		if (required > elements.length) {
+			int capacity = (int) Math.min(MAX_SIZE, Math.max(required, elements.length + (elements.length >> 1) + 1L));
+			elements = Arrays.copyOf(elements, capacity);
+		}
+	}
+}
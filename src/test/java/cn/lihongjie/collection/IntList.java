@@ -0,0 +1,28 @@
+package cn.lihongjie.collection;
+
+import java.util.function.IntConsumer;
+
+/**
+ * 存放 int 的 list, 不装箱
+ * <p>
+ * ListTest 里的 list 存的都是 Integer, 每个元素是一个 16 字节的对象加上一个引用, 数据量大的时候内存是 int[] 的 4 到 5 倍, 测试的也主要是分配和 GC
+ *
+ * @author 982264618@qq.com
+ */
+public interface IntList {
+
+	void add(int value);
+
+	void addAll(int[] values);
+
+	int get(int index);
+
+	int size();
+
+	int[] toArray();
+
+	/**
+	 * 按下标顺序遍历, 不复制数据
+	 */
+	void forEach(IntConsumer action);
+}
@@ -5,13 +5,20 @@ import org.junit.*;
 import org.junit.internal.AssumptionViolatedException;
 import org.junit.runner.Description;
 import org.junit.rules.Stopwatch;
+import org.junit.rules.TemporaryFolder;
 import org.nutz.log.Log;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 
 import static org.nutz.log.Logs.get;
 
@@ -53,6 +60,10 @@ public class ListTest {
 	};
 
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+
 	@Before
 	public void setUp() throws Exception {
 		threadPool = Executors.newCachedThreadPool();
@@ -216,4 +227,735 @@ singleThreadAppend(list);
 	}
 
 
+	@Test
+	public void testSegmentedListAppend() throws Exception {
+
+
+		List<Integer> list = new SegmentedList<>();
+
+		singleThreadAppend(list);
+
+		for (int i = 0; i < count; i++) {
+			Assert.assertThat(list.get(i), Is.is(i));
+		}
+
+
+	}
+
+
+	/**
+	 * 领下标是一次 getAndIncrement, 扩容不复制数据
+	 * @throws Exception
+	 */
+	@Test
+	public void testSegmentedListConcurrentAppend() throws Exception {
+
+
+		List<Integer> list = new SegmentedList<>();
+
+		concurrentAppend(list);
+
+		assertAllPresent(list);
+
+
+	}
+
+
+	/**
+	 * 很多线程同时追加, 每个值都恰好出现一次
+	 * @throws Exception
+	 */
+	@Test
+	public void testSegmentedListManyThreadAppend() throws Exception {
+
+
+		List<Integer> list = new SegmentedList<>();
+
+		int threadCount = 20;
+		CountDownLatch latch = new CountDownLatch(threadCount);
+		for (int t = 0; t < threadCount; t++) {
+			int start = t * count / threadCount;
+			threadPool.submit(() -> {
+				for (int i = start; i < start + count / threadCount; i++) {
+					list.add(i);
+				}
+				latch.countDown();
+			});
+		}
+		latch.await();
+
+		Assert.assertThat(list.size(), Is.is(count));
+		assertAllPresent(list);
+
+
+	}
+
+
+	private void assertAllPresent(List<Integer> list) {
+		boolean[] seen = new boolean[count];
+		for (Integer value : list) {
+			Assert.assertFalse(seen[value]);
+			seen[value] = true;
+		}
+		for (boolean b : seen) {
+			Assert.assertTrue(b);
+		}
+	}
+
+
+	/**
+	 * 不装箱, 和 testArrayListAppend 对比
+	 * @throws Exception
+	 */
+	@Test
+	public void testIntArrayListAppend() throws Exception {
+
+
+		IntList list = new IntArrayList();
+
+		for (int i = 0; i < count; i++) {
+			list.add(i);
+		}
+
+		assertIntRange(list, count);
+
+
+	}
+
+
+	@Test
+	public void testConcurrentIntListConcurrentAppend() throws Exception {
+
+
+		IntList list = new ConcurrentIntList();
+
+		concurrentAppend(list::add);
+
+		assertIntRange(list, count);
+
+
+	}
+
+
+	/**
+	 * 每个线程每次追加一批, 一批是一段连续的下标
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentIntListConcurrentAddAll() throws Exception {
+
+
+		IntList list = new ConcurrentIntList();
+		int batch = 100;
+
+		concurrentAppend(i -> {
+			if (i % batch == 0) {
+				int[] values = new int[batch];
+				for (int j = 0; j < batch; j++) {
+					values[j] = i + j;
+				}
+				list.addAll(values);
+			}
+		});
+
+		assertIntRange(list, count);
+		int[] array = list.toArray();
+		for (int i = 0; i < count; i += batch) {
+			for (int j = 1; j < batch; j++) {
+				Assert.assertThat(array[i + j], Is.is(array[i] + j));
+			}
+		}
+
+
+	}
+
+
+	/**
+	 * 一边追加一边读, 读线程只等自己要读的位置, 不用等后面还在追加的位置
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentIntListReadWhileAppending() throws Exception {
+
+
+		IntList list = new ConcurrentIntList();
+		int threadCount = 4;
+		int each = 1000000;
+		CountDownLatch latch = new CountDownLatch(threadCount);
+		for (int t = 0; t < threadCount; t++) {
+			threadPool.submit(() -> {
+				for (int i = 0; i < each; i++) {
+					list.add(7);
+				}
+				latch.countDown();
+			});
+		}
+
+		int rounds = 0;
+		while (latch.getCount() > 0) {
+			int size = list.size();
+			if (size > 0) {
+				Assert.assertThat(list.get(size - 1), Is.is(7));
+				int[] visited = {0};
+				list.forEach(value -> {
+					Assert.assertThat(value, Is.is(7));
+					visited[0]++;
+				});
+				Assert.assertTrue(visited[0] >= size);
+			}
+			rounds++;
+		}
+		logger.info(String.format("%d reads while appending", rounds));
+		Assert.assertThat(list.size(), Is.is(threadCount * each));
+
+
+	}
+
+
+	/**
+	 * 乱序写入的时候按位置判断有没有写完; 写线程失败之后, 等它的位置的读线程抛出异常, 不会一直等
+	 * @throws Exception
+	 */
+	@Test
+	public void testWrittenBitsAndAbandonedClaims() throws Exception {
+
+
+		WrittenBits bits = new WrittenBits(200);
+		bits.publish(70, 60);
+		Assert.assertThat(bits.firstUnwritten(0, 200), Is.is(0));
+		Assert.assertThat(bits.firstUnwritten(70, 130), Is.is(130));
+		bits.publish(0, 70);
+		Assert.assertThat(bits.firstUnwritten(0, 200), Is.is(130));
+		Assert.assertThat(bits.firstUnwritten(0, 100), Is.is(100));
+		bits.publish(130, 70);
+		Assert.assertThat(bits.firstUnwritten(0, 200), Is.is(200));
+
+		AbandonedClaims abandoned = new AbandonedClaims();
+		abandoned.spin(63, 12);
+		abandoned.add(10, 5);
+		abandoned.spin(63, 9);
+		abandoned.spin(62, 12);
+		try {
+			abandoned.spin(63, 12);
+			Assert.fail();
+		} catch (IllegalStateException expected) {
+			// 写线程已经失败了
+		}
+
+
+	}
+
+
+	@Test
+	public void testLongListAppend() throws Exception {
+
+
+		for (LongList list : new LongList[]{new LongArrayList(), new ConcurrentLongList()}) {
+
+			long[] values = new long[count];
+			for (int i = 0; i < count; i++) {
+				values[i] = (long) i << 32;
+			}
+			list.add(-1);
+			list.addAll(values);
+
+			Assert.assertThat(list.size(), Is.is(count + 1));
+			Assert.assertThat(list.get(0), Is.is(-1L));
+			Assert.assertThat(list.get(count), Is.is((long) (count - 1) << 32));
+			long[] sum = {0};
+			list.forEach(value -> sum[0] += value);
+			Assert.assertThat(sum[0], Is.is(-1 + ((long) count * (count - 1) / 2 << 32)));
+			Assert.assertArrayEquals(values, Arrays.copyOfRange(list.toArray(), 1, count + 1));
+		}
+
+
+	}
+
+
+	/**
+	 * 数据放在堆外, 很多线程同时追加, 跨越多个 chunk
+	 * @throws Exception
+	 */
+	@Test
+	public void testOffHeapLongListConcurrentAppend() throws Exception {
+
+
+		int n = OffHeapLongList.MIN_CHUNK_SIZE * 3 + 7;
+		int threadCount = 10;
+
+		try (OffHeapLongList list = new OffHeapLongList(0)) {
+
+			CountDownLatch latch = new CountDownLatch(threadCount);
+			for (int t = 0; t < threadCount; t++) {
+				int thread = t;
+				threadPool.submit(() -> {
+					for (int i = thread; i < n; i += threadCount) {
+						list.add(i);
+					}
+					latch.countDown();
+				});
+			}
+			latch.await();
+
+			Assert.assertThat(list.size(), Is.is(n));
+			boolean[] seen = new boolean[n];
+			list.forEach(value -> {
+				Assert.assertFalse(seen[(int) value]);
+				seen[(int) value] = true;
+			});
+			long[] array = list.toArray();
+			for (int i = 0; i < n; i++) {
+				Assert.assertTrue(seen[i]);
+				Assert.assertThat(list.get(i), Is.is(array[i]));
+			}
+		}
+
+
+	}
+
+
+	/**
+	 * 文件映射的 list 关闭之后重新打开, 数据还在, 并且可以继续追加
+	 * @throws Exception
+	 */
+	@Test
+	public void testOffHeapLongListReopen() throws Exception {
+
+
+		Path path = folder.getRoot().toPath().resolve("list");
+		long[] values = new long[OffHeapLongList.MIN_CHUNK_SIZE + count];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = i * 3L;
+		}
+
+		try (OffHeapLongList list = OffHeapLongList.open(path, 0)) {
+			list.addAll(values);
+		}
+
+		try (OffHeapLongList list = OffHeapLongList.open(path, 0)) {
+			Assert.assertThat(list.size(), Is.is(values.length));
+			Assert.assertArrayEquals(values, list.toArray());
+			list.add(-1);
+			Assert.assertThat(list.get(values.length), Is.is(-1L));
+		}
+
+		try (OffHeapLongList list = OffHeapLongList.open(path, 0)) {
+			Assert.assertThat(list.size(), Is.is(values.length + 1));
+			Assert.assertThat(list.get(values.length - 1), Is.is(values[values.length - 1]));
+		}
+
+
+	}
+
+
+	@Test(expected = IllegalStateException.class)
+	public void testOffHeapLongListClosed() throws Exception {
+
+
+		OffHeapLongList list = new OffHeapLongList(0);
+		list.add(1);
+		list.close();
+		list.get(0);
+
+
+	}
+
+
+	/**
+	 * 一边追加和读一边 close, 没做完的读写要么在释放内存之前做完, 要么抛出 IllegalStateException, 不会访问已经释放的内存
+	 * @throws Exception
+	 */
+	@Test
+	public void testOffHeapLongListCloseWhileAdding() throws Exception {
+
+
+		int threadCount = 4;
+		for (int round = 0; round < 20; round++) {
+
+			OffHeapLongList list = new OffHeapLongList(0);
+			CountDownLatch started = new CountDownLatch(threadCount);
+			CountDownLatch latch = new CountDownLatch(threadCount);
+			AtomicInteger closed = new AtomicInteger();
+			AtomicInteger errors = new AtomicInteger();
+			for (int t = 0; t < threadCount; t++) {
+				threadPool.submit(() -> {
+					started.countDown();
+					try {
+						for (int i = 0; ; i++) {
+							list.add(i);
+							list.get(i / 2);
+						}
+					} catch (IllegalStateException e) {
+						closed.incrementAndGet();
+					} catch (RuntimeException e) {
+						errors.incrementAndGet();
+					}
+					latch.countDown();
+				});
+			}
+			started.await();
+			list.close();
+			latch.await();
+
+			Assert.assertThat(errors.get(), Is.is(0));
+			Assert.assertThat(closed.get(), Is.is(threadCount));
+		}
+
+
+	}
+
+
+	/**
+	 * 和 OffHeapLongList 一样, 元素是 int
+	 * @throws Exception
+	 */
+	@Test
+	public void testOffHeapIntListConcurrentAppend() throws Exception {
+
+
+		try (OffHeapIntList list = new OffHeapIntList(0)) {
+
+			concurrentAppend(list::add);
+
+			assertIntRange(list, count);
+		}
+
+
+	}
+
+
+	@Test
+	public void testOffHeapIntListReopen() throws Exception {
+
+
+		Path path = folder.getRoot().toPath().resolve("list");
+		int[] values = new int[OffHeapIntList.MIN_CHUNK_SIZE + count];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = -i;
+		}
+
+		try (OffHeapIntList list = OffHeapIntList.open(path, 0)) {
+			list.addAll(values);
+		}
+
+		try (OffHeapIntList list = OffHeapIntList.open(path, 0)) {
+			Assert.assertThat(list.size(), Is.is(values.length));
+			Assert.assertArrayEquals(values, list.toArray());
+			list.add(7);
+			Assert.assertThat(list.get(values.length), Is.is(7));
+		}
+
+		try {
+			OffHeapLongList.open(path, 0);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// int 的文件不能当作 long 打开
+		}
+
+
+	}
+
+
+	/**
+	 * 每个线程写自己的 chunk, 最后拼起来, 顺序和线程有关, 数量和内容不变
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentCollectorConcurrentAppend() throws Exception {
+
+
+		ConcurrentCollector<Integer> collector = new ConcurrentCollector<>(100);
+
+		concurrentAppend(collector::add);
+
+		List<Integer> list = collector.drain();
+		Assert.assertThat(list.size(), Is.is(count));
+		assertAllPresent(list);
+		Assert.assertThat(collector.drain().size(), Is.is(0));
+
+
+	}
+
+
+	/**
+	 * 线程结束之后, 它剩下的数据被取走, 缓冲区也被去掉, 用过很多线程的时候缓冲区不会越积越多
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentCollectorDropsExitedThreads() throws Exception {
+
+
+		ConcurrentCollector<Integer> collector = new ConcurrentCollector<>(64);
+
+		for (int round = 0; round < 10; round++) {
+			Thread[] producers = new Thread[4];
+			for (int t = 0; t < producers.length; t++) {
+				producers[t] = new Thread(() -> {
+					for (int i = 0; i < 100; i++) {
+						collector.add(i);
+					}
+				});
+				producers[t].start();
+			}
+			for (Thread producer : producers) {
+				producer.join();
+			}
+			Assert.assertThat(collector.bufferCount(), Is.is(4));
+			Assert.assertThat(collector.drainRetired().size(), Is.is(400));
+			Assert.assertThat(collector.bufferCount(), Is.is(0));
+		}
+
+		collector.add(1);
+		Assert.assertThat(collector.bufferCount(), Is.is(1));
+		Assert.assertThat(collector.drain().size(), Is.is(1));
+		Assert.assertThat(collector.bufferCount(), Is.is(1));
+
+
+	}
+
+
+	/**
+	 * 生产线程运行的时候只能取走已经写满或者 flush 过的 chunk
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentCollectorFlush() throws Exception {
+
+
+		ConcurrentCollector<Integer> collector = new ConcurrentCollector<>(64);
+		CountDownLatch added = new CountDownLatch(1);
+		CountDownLatch drained = new CountDownLatch(1);
+		CountDownLatch flushed = new CountDownLatch(1);
+
+		threadPool.submit(() -> {
+			for (int i = 0; i < 100; i++) {
+				collector.add(i);
+			}
+			added.countDown();
+			try {
+				drained.await();
+			} catch (InterruptedException e) {
+				return;
+			}
+			collector.flush();
+			flushed.countDown();
+		});
+
+		added.await();
+		Assert.assertThat(collector.drainRetired().size(), Is.is(64));
+		drained.countDown();
+		flushed.await();
+		List<Integer> rest = collector.drainRetired();
+		Assert.assertThat(rest.size(), Is.is(36));
+		Assert.assertThat(rest.get(0), Is.is(64));
+		Assert.assertThat(rest.get(35), Is.is(99));
+
+
+	}
+
+
+	/**
+	 * 和 testCopyOnWriteArrayListConcurrentAppend 对比, 同时到达的 add 一起复制一次数组
+	 * @throws Exception
+	 */
+	@Test
+	public void testBatchingCopyOnWriteListConcurrentAppend() throws Exception {
+
+
+		BatchingCopyOnWriteList<Integer> list = new BatchingCopyOnWriteList<>();
+
+		concurrentAppend(list);
+
+		logger.info(String.format("%d commits, average batch %.2f", list.commits(), list.averageBatch()));
+		assertAllPresent(list);
+
+
+	}
+
+
+	/**
+	 * addAll 一次提交所有元素, 只复制一次数组
+	 * @throws Exception
+	 */
+	@Test
+	public void testBatchingCopyOnWriteListAddAll() throws Exception {
+
+
+		BatchingCopyOnWriteList<Integer> list = new BatchingCopyOnWriteList<>();
+		List<Integer> values = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			values.add(i);
+		}
+
+		list.add(-1);
+		Assert.assertTrue(list.addAll(values));
+		Assert.assertFalse(list.addAll(Collections.emptyList()));
+
+		Assert.assertThat(list.commits(), Is.is(2L));
+		Assert.assertThat(list.size(), Is.is(count + 1));
+		Assert.assertThat(list.subList(1, count + 1), Is.is(values));
+
+
+	}
+
+
+	/**
+	 * 一边注册一边注销, 同时有线程在遍历快照
+	 * @throws Exception
+	 */
+	@Test
+	public void testBatchingCopyOnWriteListAddRemove() throws Exception {
+
+
+		BatchingCopyOnWriteList<Integer> list = new BatchingCopyOnWriteList<>();
+		int threadCount = 10;
+		CountDownLatch latch = new CountDownLatch(threadCount);
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicInteger iterations = new AtomicInteger();
+		AtomicInteger errors = new AtomicInteger();
+		int each = count / threadCount;
+
+		threadPool.submit(() -> {
+			while (!done.get()) {
+				for (Integer value : list) {
+					if (value == null) {
+						errors.incrementAndGet();
+					}
+				}
+				iterations.incrementAndGet();
+			}
+		});
+
+		for (int t = 0; t < threadCount; t++) {
+			int start = t * each;
+			threadPool.submit(() -> {
+				for (int i = start; i < start + each; i++) {
+					list.add(i);
+					if (i % 2 == 1 && !list.remove((Object) i)) {
+						errors.incrementAndGet();
+					}
+				}
+				latch.countDown();
+			});
+		}
+		latch.await();
+		done.set(true);
+
+		logger.info(String.format("%d commits, average batch %.2f, %d iterations",
+				list.commits(), list.averageBatch(), iterations.get()));
+		Assert.assertThat(errors.get(), Is.is(0));
+		Assert.assertThat(list.size(), Is.is(count / 2));
+		for (Integer value : list) {
+			Assert.assertThat(value % 2, Is.is(0));
+		}
+		Assert.assertFalse(list.remove((Object) 1));
+
+
+	}
+
+
+	/**
+	 * 一边 add 一边 clear, 同时用 indexOf / listIterator / subList / equals 读, 都在快照上做, 不能越界
+	 * @throws Exception
+	 */
+	@Test
+	public void testBatchingCopyOnWriteListClearWhileReading() throws Exception {
+
+
+		BatchingCopyOnWriteList<Integer> list = new BatchingCopyOnWriteList<>();
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicInteger errors = new AtomicInteger();
+		CountDownLatch readers = new CountDownLatch(1);
+		int rounds = 2000;
+
+		threadPool.submit(() -> {
+			try {
+				while (!done.get()) {
+					try {
+						int index = list.indexOf(Integer.MAX_VALUE);
+						list.lastIndexOf(Integer.MAX_VALUE);
+						for (ListIterator<Integer> it = list.listIterator(); it.hasNext(); ) {
+							if (it.next() == null) {
+								errors.incrementAndGet();
+							}
+						}
+						List<Integer> sub = list.subList(0, Math.max(index, 0));
+						if (!sub.equals(new ArrayList<>(sub)) || !list.equals(list)) {
+							errors.incrementAndGet();
+						}
+					} catch (RuntimeException e) {
+						errors.incrementAndGet();
+					}
+				}
+			} finally {
+				readers.countDown();
+			}
+		});
+
+		for (int i = 0; i < rounds; i++) {
+			for (int j = 0; j < 16; j++) {
+				list.add(j);
+			}
+			list.add(Integer.MAX_VALUE);
+			list.clear();
+		}
+		done.set(true);
+		readers.await();
+
+		Assert.assertThat(errors.get(), Is.is(0));
+		Assert.assertTrue(list.isEmpty());
+		try {
+			list.get(0);
+			Assert.fail();
+		} catch (IndexOutOfBoundsException e) {
+			Assert.assertFalse(e instanceof ArrayIndexOutOfBoundsException);
+		}
+
+
+	}
+
+
+	/**
+	 * 0 到 n - 1 每个值都恰好出现一次
+	 */
+	private void assertIntRange(IntList list, int n) {
+		Assert.assertThat(list.size(), Is.is(n));
+		boolean[] seen = new boolean[n];
+		list.forEach(value -> {
+			Assert.assertFalse(seen[value]);
+			seen[value] = true;
+		});
+		int[] array = list.toArray();
+		for (int i = 0; i < n; i++) {
+			Assert.assertTrue(seen[i]);
+			Assert.assertThat(list.get(i), Is.is(array[i]));
+		}
+	}
+
+	private void concurrentAppend(IntConsumer adder) throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(2);
+		threadPool.submit(() -> {
+
+			for (int i = 0; i < count / 2; i++) {
+
+				adder.accept(i);
+			}
+
+			latch.countDown();
+		});
+
+		threadPool.submit(() -> {
+
+			for (int i = count / 2; i < count; i++) {
+
+				adder.accept(i);
+			}
+
+			latch.countDown();
+		});
+
+		latch.await();
+	}
+
+
 }
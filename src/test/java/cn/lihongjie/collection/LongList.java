@@ -0,0 +1,28 @@
+package cn.lihongjie.collection;
+
+import java.util.function.LongConsumer;
+
+/**
+ * 存放 long 的 list, 不装箱
+ * <p>
+ * 和 IntList 一样, 元素是 long
+ *
+ * @author 982264618@qq.com
+ */
+public interface LongList {
+
+	void add(long value);
+
+	void addAll(long[] values);
+
+	long get(int index);
+
+	int size();
+
+	long[] toArray();
+
+	/**
+	 * 按下标顺序遍历, 不复制数据
+	 */
+	void forEach(LongConsumer action);
+}
@@ -0,0 +1,137 @@
+package cn.lihongjie.collection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.function.IntConsumer;
+
+/**
+ * 数据放在堆外的 IntList, 除了元素是 4 字节的 int, 其它和 OffHeapLongList 一样, 同样的 chunkSize 只用一半的内存
+ * <p>
+ * 文件的 magic 是 "ILST", 和 OffHeapLongList 的文件不能混用, 用错了 open 会抛出 IllegalStateException
+ *
+ * @author 982264618@qq.com
+ */
+public class OffHeapIntList extends OffHeapList implements IntList {
+
+	public static final int MAGIC = 0x494C5354;
+
+	private static final int BYTES = 4;
+
+	/**
+	 * 数据放在 direct buffer 里, chunkSize 向上取整到 2 的幂, 最小是 MIN_CHUNK_SIZE
+	 */
+	public OffHeapIntList(int chunkSize) {
+		this(chunkSize, null, null);
+	}
+
+	private OffHeapIntList(int chunkSize, FileChannel channel, MappedByteBuffer header) {
+		super(BYTES, chunkSize, channel, header);
+	}
+
+	/**
+	 * 打开文件, 文件不存在或者还没有初始化就按 chunkSize 创建; 已经存在就校验头部, 以文件里的 chunkSize 和 size 为准
+	 */
+	public static OffHeapIntList open(Path path, int chunkSize) throws IOException {
+		return open(path, MAGIC, BYTES, chunkSize, OffHeapIntList::new);
+	}
+
+	@Override
+	public void add(int value) {
+		enter();
+		try {
+			int index = claim(1);
+			try {
+				Chunk chunk = chunk(index >>> chunkShift);
+				int offset = index & chunkMask;
+				chunk.buffer.putInt(offset * BYTES, value);
+				chunk.written.publish(offset, 1);
+			} catch (RuntimeException | Error e) {
+				abandon(index, 1);
+				throw e;
+			}
+		} finally {
+			exit();
+		}
+	}
+
+	@Override
+	public void addAll(int[] values) {
+		enter();
+		try {
+			int first = claim(values.length);
+			try {
+				int index = first;
+				int copied = 0;
+				while (copied < values.length) {
+					Chunk chunk = chunk(index >>> chunkShift);
+					int offset = index & chunkMask;
+					int n = Math.min(values.length - copied, chunkMask + 1 - offset);
+					IntBuffer view = view(chunk).asIntBuffer();
+					view.position(offset);
+					view.put(values, copied, n);
+					chunk.written.publish(offset, n);
+					copied += n;
+					index += n;
+				}
+			} catch (RuntimeException | Error e) {
+				abandon(first, values.length);
+				throw e;
+			}
+		} finally {
+			exit();
+		}
+	}
+
+	@Override
+	public int get(int index) {
+		enter();
+		try {
+			if (index < 0 || index >= size()) {
+				throw new IndexOutOfBoundsException(String.valueOf(index));
+			}
+			int offset = index & chunkMask;
+			return awaitWritten(index >>> chunkShift, offset, offset + 1).buffer.getInt(offset * BYTES);
+		} finally {
+			exit();
+		}
+	}
+
+	@Override
+	public int[] toArray() {
+		enter();
+		try {
+			int size = size();
+			int[] array = new int[size];
+			for (int chunk = 0, copied = 0; copied < size; chunk++) {
+				int n = Math.min(chunkMask + 1, size - copied);
+				view(awaitWritten(chunk, 0, n)).asIntBuffer().get(array, copied, n);
+				copied += n;
+			}
+			return array;
+		} finally {
+			exit();
+		}
+	}
+
+	@Override
+	public void forEach(IntConsumer action) {
+		enter();
+		try {
+			int size = size();
+			for (int chunk = 0, visited = 0; visited < size; chunk++) {
+				int n = Math.min(chunkMask + 1, size - visited);
+				ByteBuffer buffer = awaitWritten(chunk, 0, n).buffer;
+				for (int i = 0; i < n; i++) {
+					action.accept(buffer.getInt(i * BYTES));
+				}
+				visited += n;
+			}
+		} finally {
+			exit();
+		}
+	}
+}
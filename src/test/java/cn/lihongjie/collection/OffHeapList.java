@@ -0,0 +1,297 @@
+package cn.lihongjie.collection;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * OffHeapLongList 和 OffHeapIntList 共用的部分: chunk 的分配, 下标的领取, 文件的打开和恢复, 以及关闭
+ * <p>
+ * 文件格式(字节序和本机一致), magic 区分元素类型:
+ * <pre>
+ * offset  size  字段
+ * 0       4     magic, long 是 0x4C4C5354 ("LLST"), int 是 0x494C5354 ("ILST")
+ * 4       4     version, 当前为 1
+ * 8       4     chunkSize, 每个 chunk 的元素个数
+ * 12      4     保留
+ * 16      8     size, force 或者 close 的时候写入
+ * 24      40    保留, 全部为 0
+ * 64 + i * chunkSize * 元素字节数   第 i 个 chunk
+ * </pre>
+ * 文件里的 size 只在 force 和 close 的时候更新, 进程崩溃的话最后一次 force 之后追加的数据会丢失.
+ * <p>
+ * close 会立刻释放所有 chunk 的内存(见 DirectBuffers), 释放之后再访问会让 JVM 崩溃, 所以每次读写都要先在 state 上登记:
+ * state 的最高位表示已经关闭, 低位是正在进行的读写数. 读写开始的时候加一, 看到已经关闭就减回去并抛出 IllegalStateException;
+ * close 先设置最高位, 之后的读写都会失败, 再等已经开始的读写做完才释放. 代价是每次读写多两次原子操作.
+ * 不能在 forEach 的回调里 close 同一个 list, 会一直等自己
+ * <p>
+ * 和 ConcurrentLongList 一样, 每个 chunk 用 WrittenBits 记录哪些位置已经写入, 读线程只等自己要读的位置;
+ * 写线程在领下标和写入之间失败的话, 等这些位置的读线程(包括 force 和 close)抛出 IllegalStateException, 见 AbandonedClaims
+ *
+ * @author 982264618@qq.com
+ */
+abstract class OffHeapList implements Closeable {
+
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 64;
+	/**
+	 * chunk 的目录是固定长度的, chunk 太小的话目录会很大
+	 */
+	public static final int MIN_CHUNK_SIZE = 1 << 16;
+
+	private static final int CLOSED = Integer.MIN_VALUE;
+
+	final int chunkShift;
+	final int chunkMask;
+	private final int bytes;
+	private final int maxSize;
+	private final AtomicReferenceArray<Chunk> chunks;
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicInteger state = new AtomicInteger();
+	private final AbandonedClaims abandoned = new AbandonedClaims();
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+
+	OffHeapList(int bytes, int chunkSize, FileChannel channel, MappedByteBuffer header) {
+		int size = chunkSize(chunkSize, bytes);
+		this.bytes = bytes;
+		chunkShift = Integer.numberOfTrailingZeros(size);
+		chunkMask = size - 1;
+		maxSize = Integer.MAX_VALUE - size;
+		chunks = new AtomicReferenceArray<>((maxSize >>> chunkShift) + 1);
+		this.channel = channel;
+		this.header = header;
+	}
+
+	interface Factory<L extends OffHeapList> {
+		L create(int chunkSize, FileChannel channel, MappedByteBuffer header);
+	}
+
+	/**
+	 * 打开文件, 文件不存在或者还没有初始化就按 chunkSize 创建; 已经存在就校验头部, 以文件里的 chunkSize 和 size 为准
+	 */
+	static <L extends OffHeapList> L open(Path path, int magic, int bytes, int chunkSize, Factory<L> factory) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			MappedByteBuffer header;
+			long size = 0;
+			if (channel.size() < HEADER_SIZE) {
+				header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+				header.order(ByteOrder.nativeOrder());
+				header.putInt(4, VERSION);
+				header.putInt(8, chunkSize(chunkSize, bytes));
+				header.putInt(0, magic);
+				header.force();
+			} else {
+				header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+				header.order(ByteOrder.nativeOrder());
+				if (header.getInt(0) != magic) {
+					throw new IllegalStateException("not a list file: " + path);
+				}
+				int version = header.getInt(4);
+				if (version != VERSION) {
+					throw new IllegalStateException("unsupported list file version " + version);
+				}
+				size = header.getLong(16);
+			}
+			L list = factory.create(header.getInt(8), channel, header);
+			((OffHeapList) list).restore(size);
+			return list;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * 向上取整到 2 的幂, 最小是 MIN_CHUNK_SIZE, 一个 chunk 不能超过 2G 字节
+	 */
+	private static int chunkSize(int chunkSize, int bytes) {
+		int size = MIN_CHUNK_SIZE;
+		while (size < chunkSize) {
+			size <<= 1;
+			if ((long) size * bytes > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("chunk too large: " + chunkSize);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * 重新打开的文件, 已有的 chunk 都是写满的(最后一个写到 size)
+	 */
+	private void restore(long size) {
+		if (size < 0 || size > maxSize) {
+			throw new IllegalStateException("corrupted list size " + size);
+		}
+		for (int index = 0; index < size; index += chunkMask + 1) {
+			chunk(index >>> chunkShift).written.publish(0, (int) Math.min(chunkMask + 1, size - index));
+		}
+		this.size.set((int) size);
+	}
+
+	/**
+	 * 已经领走的下标数, 包括正在写入的
+	 */
+	public int size() {
+		return Math.min(size.get(), maxSize);
+	}
+
+	/**
+	 * 每次读写之前调用, 已经关闭就抛出 IllegalStateException. 成功之后必须在 finally 里调用 exit
+	 */
+	final void enter() {
+		if (state.getAndIncrement() < 0) {
+			state.getAndDecrement();
+			throw new IllegalStateException("list is closed");
+		}
+	}
+
+	final void exit() {
+		state.getAndDecrement();
+	}
+
+	/**
+	 * 把数据和 size 刷到磁盘, 只有文件映射的 list 才有效果
+	 */
+	public void force() {
+		enter();
+		try {
+			flush();
+		} finally {
+			exit();
+		}
+	}
+
+	private void flush() {
+		if (header == null) {
+			return;
+		}
+		int size = size();
+		for (int chunk = 0; chunk << chunkShift < size; chunk++) {
+			int n = Math.min(chunkMask + 1, size - (chunk << chunkShift));
+			((MappedByteBuffer) awaitWritten(chunk, 0, n).buffer).force();
+		}
+		header.putLong(16, size);
+		header.force();
+	}
+
+	/**
+	 * 等正在进行的读写做完, 释放所有 chunk 的内存, 文件映射的 list 先 force
+	 */
+	@Override
+	public void close() throws IOException {
+		int s;
+		do {
+			s = state.get();
+			if (s < 0) {
+				return;
+			}
+		} while (!state.compareAndSet(s, s | CLOSED));
+		for (int i = 0; (state.get() & ~CLOSED) != 0; i++) {
+			if ((i & 63) == 63) {
+				Thread.yield();
+			}
+		}
+		try {
+			flush();
+		} finally {
+			for (int i = 0; i < chunks.length(); i++) {
+				Chunk chunk = chunks.getAndSet(i, null);
+				if (chunk != null) {
+					DirectBuffers.release(chunk.buffer);
+				}
+			}
+			DirectBuffers.release(header);
+			if (channel != null) {
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * 领 n 个连续的下标, 返回第一个
+	 */
+	final int claim(int n) {
+		int index = size.getAndAdd(n);
+		if (index < 0 || index > maxSize - n) {
+			size.getAndAdd(-n);
+			throw new IllegalStateException("list is full");
+		}
+		return index;
+	}
+
+	/**
+	 * duplicate 出来的 buffer 字节序会变回大端, 要重新设置
+	 */
+	static ByteBuffer view(Chunk chunk) {
+		return chunk.buffer.duplicate().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * 写线程领了 [index, index + n) 之后失败了, 这些位置不会再写入
+	 */
+	final void abandon(int index, int n) {
+		abandoned.add(index, n);
+	}
+
+	/**
+	 * 等到这个 chunk 的 [from, to) 都写完, 只等调用者要读的位置, 和 ConcurrentLongList 一样
+	 */
+	final Chunk awaitWritten(int chunk, int from, int to) {
+		int start = chunk << chunkShift;
+		Chunk c;
+		for (int i = 0; (c = chunks.get(chunk)) == null; i++) {
+			abandoned.spin(i, start + from);
+		}
+		for (int i = 0; (from = c.written.firstUnwritten(from, to)) < to; i++) {
+			abandoned.spin(i, start + from);
+		}
+		return c;
+	}
+
+	final Chunk chunk(int chunk) {
+		Chunk c = chunks.get(chunk);
+		if (c == null) {
+			Chunk created = new Chunk(allocate(chunk), chunkMask + 1);
+			if (chunks.compareAndSet(chunk, null, created)) {
+				c = created;
+			} else {
+				DirectBuffers.release(created.buffer);
+				c = chunks.get(chunk);
+			}
+		}
+		return c;
+	}
+
+	private ByteBuffer allocate(int chunk) {
+		int chunkBytes = (chunkMask + 1) * bytes;
+		if (channel == null) {
+			return ByteBuffer.allocateDirect(chunkBytes).order(ByteOrder.nativeOrder());
+		}
+		try {
+			return channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + ((long) chunk << chunkShift) * bytes, chunkBytes)
+					.order(ByteOrder.nativeOrder());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	static final class Chunk {
+		final ByteBuffer buffer;
+		final WrittenBits written;
+
+		Chunk(ByteBuffer buffer, int length) {
+			this.buffer = buffer;
+			this.written = new WrittenBits(length);
+		}
+	}
+}
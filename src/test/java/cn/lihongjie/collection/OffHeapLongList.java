@@ -0,0 +1,142 @@
+package cn.lihongjie.collection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.function.LongConsumer;
+
+/**
+ * 数据放在堆外的 LongList
+ * <p>
+ * ListTest.singleThreadAppend 里的 ArrayList 放在堆上, 几个 G 的数据会让每次 GC 都要扫描和复制很久.
+ * 这里数据放在一串固定大小的 direct ByteBuffer(chunk) 里, 堆上只有几个 chunk 对象; 用满一个 chunk 就分配下一个, 已有的数据不会复制.
+ * 多线程追加的方式和 ConcurrentLongList 一样: 先领下标, 再写数据, 最后增加 chunk 的 written
+ * <p>
+ * 用 open 打开的时候 chunk 是文件的内存映射, 进程重启之后再 open 同一个文件可以继续读写, 文件格式见 OffHeapList.
+ * close 之后所有 chunk 的内存立刻释放, 和 close 并发的读写要么在释放之前做完, 要么抛出 IllegalStateException
+ *
+ * @author 982264618@qq.com
+ */
+public class OffHeapLongList extends OffHeapList implements LongList {
+
+	public static final int MAGIC = 0x4C4C5354;
+
+	private static final int BYTES = 8;
+
+	/**
+	 * 数据放在 direct buffer 里, chunkSize 向上取整到 2 的幂, 最小是 MIN_CHUNK_SIZE
+	 */
+	public OffHeapLongList(int chunkSize) {
+		this(chunkSize, null, null);
+	}
+
+	private OffHeapLongList(int chunkSize, FileChannel channel, MappedByteBuffer header) {
+		super(BYTES, chunkSize, channel, header);
+	}
+
+	/**
+	 * 打开文件, 文件不存在或者还没有初始化就按 chunkSize 创建; 已经存在就校验头部, 以文件里的 chunkSize 和 size 为准
+	 */
+	public static OffHeapLongList open(Path path, int chunkSize) throws IOException {
+		return open(path, MAGIC, BYTES, chunkSize, OffHeapLongList::new);
+	}
+
+	@Override
+	public void add(long value) {
+		enter();
+		try {
+			int index = claim(1);
+			try {
+				Chunk chunk = chunk(index >>> chunkShift);
+				int offset = index & chunkMask;
+				chunk.buffer.putLong(offset * BYTES, value);
+				chunk.written.publish(offset, 1);
+			} catch (RuntimeException | Error e) {
+				abandon(index, 1);
+				throw e;
+			}
+		} finally {
+			exit();
+		}
+	}
+
+	@Override
+	public void addAll(long[] values) {
+		enter();
+		try {
+			int first = claim(values.length);
+			try {
+				int index = first;
+				int copied = 0;
+				while (copied < values.length) {
+					Chunk chunk = chunk(index >>> chunkShift);
+					int offset = index & chunkMask;
+					int n = Math.min(values.length - copied, chunkMask + 1 - offset);
+					LongBuffer view = view(chunk).asLongBuffer();
+					view.position(offset);
+					view.put(values, copied, n);
+					chunk.written.publish(offset, n);
+					copied += n;
+					index += n;
+				}
+			} catch (RuntimeException | Error e) {
+				abandon(first, values.length);
+				throw e;
+			}
+		} finally {
+			exit();
+		}
+	}
+
+	@Override
+	public long get(int index) {
+		enter();
+		try {
+			if (index < 0 || index >= size()) {
+				throw new IndexOutOfBoundsException(String.valueOf(index));
+			}
+			int offset = index & chunkMask;
+			return awaitWritten(index >>> chunkShift, offset, offset + 1).buffer.getLong(offset * BYTES);
+		} finally {
+			exit();
+		}
+	}
+
+	@Override
+	public long[] toArray() {
+		enter();
+		try {
+			int size = size();
+			long[] array = new long[size];
+			for (int chunk = 0, copied = 0; copied < size; chunk++) {
+				int n = Math.min(chunkMask + 1, size - copied);
+				view(awaitWritten(chunk, 0, n)).asLongBuffer().get(array, copied, n);
+				copied += n;
+			}
+			return array;
+		} finally {
+			exit();
+		}
+	}
+
+	@Override
+	public void forEach(LongConsumer action) {
+		enter();
+		try {
+			int size = size();
+			for (int chunk = 0, visited = 0; visited < size; chunk++) {
+				int n = Math.min(chunkMask + 1, size - visited);
+				ByteBuffer buffer = awaitWritten(chunk, 0, n).buffer;
+				for (int i = 0; i < n; i++) {
+					action.accept(buffer.getLong(i * BYTES));
+				}
+				visited += n;
+			}
+		} finally {
+			exit();
+		}
+	}
+}
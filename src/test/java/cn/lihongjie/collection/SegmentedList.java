@@ -0,0 +1,101 @@
+package cn.lihongjie.collection;
+
+import java.util.AbstractList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 无锁的只追加 list
+ * <p>
+ * ListTest 里线程安全的 list 要么所有线程串行在一个锁上(synchronizedList), 要么每次 add 都复制整个数组(CopyOnWriteArrayList).
+ * 这里 add 先用 getAndIncrement 领一个下标, 再把元素写到这个下标上, 不同线程写不同的位置, 互不等待.
+ * <p>
+ * 数据分段保存, 第 k 段的长度是 FIRST * 2^k, 用到的时候才 CAS 分配, 扩容只是多分配一段, 已有的数据不会复制, 段的目录是固定长度的, 也不用扩容.
+ * 下标 i 加上 FIRST 之后最高位的位置决定在哪一段, 剩下的位是段内的位置
+ * <p>
+ * 领了下标但是还没写入元素的时候, size 已经包括了这个位置, 这时候 get 会自旋等待写入完成, 只等自己要读的位置. 所以不能添加 null.
+ * 写线程在领下标和写入之间失败(比如分配新的一段的时候 OutOfMemoryError)的话, get 这个位置会抛出 IllegalStateException, 见 AbandonedClaims
+ * 只支持 add 和读, set / remove 抛出 UnsupportedOperationException
+ *
+ * @author 982264618@qq.com
+ */
+public class SegmentedList<E> extends AbstractList<E> {
+
+	static final int FIRST_SHIFT = 5;
+	static final int FIRST = 1 << FIRST_SHIFT;
+	/**
+	 * 下标加上 FIRST 不能溢出, 最大是 Integer.MAX_VALUE, 最高位是第 30 位
+	 */
+	static final int MAX_SIZE = Integer.MAX_VALUE - FIRST + 1;
+	static final int SEGMENTS = 31 - FIRST_SHIFT;
+
+	private final AtomicReferenceArray<AtomicReferenceArray<E>> segments = new AtomicReferenceArray<>(SEGMENTS);
+	private final AtomicInteger size = new AtomicInteger();
+	private final AbandonedClaims abandoned = new AbandonedClaims();
+
+	@Override
+	public boolean add(E e) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		int index = size.getAndIncrement();
+		if (index < 0 || index >= MAX_SIZE) {
+			size.getAndDecrement();
+			throw new IllegalStateException("list is full");
+		}
+		try {
+			int pos = index + FIRST;
+			int segment = segmentOf(pos);
+			segment(segment).set(pos - (FIRST << segment), e);
+		} catch (RuntimeException | Error error) {
+			abandoned.add(index, 1);
+			throw error;
+		}
+		return true;
+	}
+
+	@Override
+	public E get(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		int pos = index + FIRST;
+		int segment = segmentOf(pos);
+		int offset = pos - (FIRST << segment);
+		AtomicReferenceArray<E> array;
+		E e;
+		// 下标已经领走, 但是写入的线程还没有分配段或者写入元素
+		for (int i = 0; (array = segments.get(segment)) == null || (e = array.get(offset)) == null; i++) {
+			abandoned.spin(i, index);
+		}
+		return e;
+	}
+
+	/**
+	 * 已经领走的下标数, 包括正在写入的
+	 */
+	@Override
+	public int size() {
+		return Math.min(size.get(), MAX_SIZE);
+	}
+
+	static int segmentOf(int pos) {
+		return 31 - Integer.numberOfLeadingZeros(pos) - FIRST_SHIFT;
+	}
+
+	/**
+	 * 没有就分配一段, 多个线程同时分配的时候只有一个能 CAS 成功, 其它的用它的
+	 */
+	private AtomicReferenceArray<E> segment(int segment) {
+		AtomicReferenceArray<E> array = segments.get(segment);
+		if (array == null) {
+			AtomicReferenceArray<E> created = new AtomicReferenceArray<>(FIRST << segment);
+			if (segments.compareAndSet(segment, null, created)) {
+				array = created;
+			} else {
+				array = segments.get(segment);
+			}
+		}
+		return array;
+	}
+}
@@ -0,0 +1,50 @@
+package cn.lihongjie.collection;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 一段数组里每个位置有没有写入, 每个位置一位
+ * <p>
+ * 写线程先写数组, 再 publish 自己的位置; 读线程看到自己要的位置都有了再读数组. 位数组是 volatile 读写的, 所以之前对数组的普通写对读线程是可见的.
+ * 每一位只会被领到这个位置的线程设置一次, 不同线程设置的位不会重叠, 所以用 getAndAdd 代替 CAS 循环的按位或, 一个 long 一次原子加, 不会重试
+ *
+ * @author 982264618@qq.com
+ */
+final class WrittenBits {
+
+	private final AtomicLongArray words;
+
+	WrittenBits(int length) {
+		words = new AtomicLongArray((length + 63) >>> 6);
+	}
+
+	/**
+	 * [from, from + n) 写完了
+	 */
+	void publish(int from, int n) {
+		int end = from + n;
+		while (from < end) {
+			int word = from >>> 6;
+			int to = Math.min(end, (word + 1) << 6);
+			int bits = to - from;
+			long mask = bits == 64 ? -1L : ((1L << bits) - 1) << from;
+			words.getAndAdd(word, mask);
+			from = to;
+		}
+	}
+
+	/**
+	 * [from, to) 里第一个还没写入的位置, 都写完了返回 to
+	 */
+	int firstUnwritten(int from, int to) {
+		while (from < to) {
+			// -1L << from 只移动 from 的低 6 位, 去掉这个 word 里 from 之前的位
+			long missing = ~words.get(from >>> 6) & (-1L << from);
+			if (missing != 0) {
+				return Math.min((from & ~63) + Long.numberOfTrailingZeros(missing), to);
+			}
+			from = (from | 63) + 1;
+		}
+		return to;
+	}
+}
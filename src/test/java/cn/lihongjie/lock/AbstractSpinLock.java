@@ -0,0 +1,90 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 自旋锁的公共部分, 子类只需要实现 tryAcquire / acquire / release
+ * <p>
+ * 自旋锁不可重入, 也不支持条件变量
+ * <p>
+ * 每自旋 SPINS 次 yield 一次, 线程数超过 CPU 数的时候, 持有锁的线程可能没有在运行, 一直自旋只会浪费它的时间片
+ *
+ * @author 982264618@qq.com
+ */
+public abstract class AbstractSpinLock implements Lock {
+
+	static final int SPINS = 64;
+
+	/**
+	 * 只有持有锁的线程会写, 用来检查 unlock 的线程是不是持有锁的线程
+	 */
+	private Thread owner;
+
+	static void spin(int iteration) {
+		if ((iteration & (SPINS - 1)) == SPINS - 1) {
+			Thread.yield();
+		}
+	}
+
+	protected abstract boolean tryAcquire();
+
+	protected abstract void acquire();
+
+	protected abstract void release();
+
+	@Override
+	public void lock() {
+		acquire();
+		owner = Thread.currentThread();
+	}
+
+	@Override
+	public void lockInterruptibly() throws InterruptedException {
+		for (int i = 0; !tryLock(); i++) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			spin(i);
+		}
+	}
+
+	@Override
+	public boolean tryLock() {
+		if (tryAcquire()) {
+			owner = Thread.currentThread();
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(time);
+		for (int i = 0; !tryLock(); i++) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (System.nanoTime() - deadline >= 0) {
+				return false;
+			}
+			spin(i);
+		}
+		return true;
+	}
+
+	@Override
+	public void unlock() {
+		if (owner != Thread.currentThread()) {
+			throw new IllegalMonitorStateException();
+		}
+		owner = null;
+		release();
+	}
+
+	@Override
+	public Condition newCondition() {
+		throw new UnsupportedOperationException();
+	}
+}
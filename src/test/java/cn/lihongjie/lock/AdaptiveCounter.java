@@ -0,0 +1,230 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import static cn.lihongjie.lock.StripedCounter.PAD;
+
+/**
+ * 根据竞争自动膨胀和收缩的计数器
+ * <p>
+ * 大部分计数器都是冷的, 只有一个 long 做 CAS, 和 NoLockTest.testAtomicAdd 里的 AtomicLong 一样
+ * <p>
+ * base 上 CAS 失败的次数达到 inflateThreshold 说明这个计数器是热的, 这时候膨胀为 StripedCounter 那样的分段 cell.
+ * 两次失败之间隔了 quietPeriod 以上的话重新计数, 偶尔的竞争攒不到膨胀
+ * <p>
+ * 膨胀之后如果 quietPeriod 之内 cell 上都没有 CAS 失败, 那么在读的时候把 cell 收缩回 base.
+ * 只写不读的计数器也要能收缩, 所以写 cell 成功之后也会检查; 为了不在每次写的时候都调用 nanoTime,
+ * 只有 cell 的值跨过 2^DEFLATE_CHECK_SHIFT 的倍数的时候(每个 cell 大约每加 64 次)才检查一次
+ * <p>
+ * 收缩的时候先把每个 cell 换成 DRAINED, 全部加到 base 上之后才把 cells 置空. 还在往旧 cell 里写的线程 CAS 会失败,
+ * 然后重新读取 cells, 所以不会丢失增量. 收缩用 drainSeq 做成 SeqLock 那样的写: 开始和结束各加一,
+ * 读的时候 drainSeq 是奇数或者读完之后变了就重读, 不会看到一部分 cell 已经 DRAINED 但是还没加到 base 上的中间状态, 读到的值不会倒退.
+ * 和 LongAdder 一样, 有并发写的时候 get 不是一个原子的快照
+ *
+ * @author 982264618@qq.com
+ */
+public class AdaptiveCounter implements Counter {
+
+	private static final long DRAINED = Long.MIN_VALUE;
+	private static final int DEFLATE_CHECK_SHIFT = 6;
+
+	private static final AtomicLongFieldUpdater<AdaptiveCounter> BASE =
+			AtomicLongFieldUpdater.newUpdater(AdaptiveCounter.class, "base");
+	private static final AtomicIntegerFieldUpdater<AdaptiveCounter> CONTENDED =
+			AtomicIntegerFieldUpdater.newUpdater(AdaptiveCounter.class, "contended");
+	private static final AtomicReferenceFieldUpdater<AdaptiveCounter, AtomicLongArray> CELLS =
+			AtomicReferenceFieldUpdater.newUpdater(AdaptiveCounter.class, AtomicLongArray.class, "cells");
+	private static final AtomicIntegerFieldUpdater<AdaptiveCounter> INFLATIONS =
+			AtomicIntegerFieldUpdater.newUpdater(AdaptiveCounter.class, "inflations");
+	private static final AtomicIntegerFieldUpdater<AdaptiveCounter> DEFLATIONS =
+			AtomicIntegerFieldUpdater.newUpdater(AdaptiveCounter.class, "deflations");
+	private static final AtomicIntegerFieldUpdater<AdaptiveCounter> DRAIN_SEQ =
+			AtomicIntegerFieldUpdater.newUpdater(AdaptiveCounter.class, "drainSeq");
+
+	private volatile long base;
+	private volatile int contended;
+	private volatile AtomicLongArray cells;
+	private volatile long lastContention;
+	/**
+	 * 奇数表示正在收缩
+	 */
+	private volatile int drainSeq;
+
+	private final int inflateThreshold;
+	private final long quietNanos;
+	private final int mask;
+
+	/**
+	 * 膨胀和收缩的次数, 用来检查策略是否合理
+	 */
+	private volatile int inflations;
+	private volatile int deflations;
+
+	public AdaptiveCounter(int c) {
+		this(c, 4, 1, TimeUnit.SECONDS, Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	public AdaptiveCounter(int c, int inflateThreshold, long quietPeriod, TimeUnit unit, int stripes) {
+		this.base = c;
+		this.inflateThreshold = inflateThreshold;
+		this.quietNanos = unit.toNanos(quietPeriod);
+		int size = 1;
+		while (size < stripes) {
+			size <<= 1;
+		}
+		mask = size - 1;
+	}
+
+	@Override
+	public long getLong() {
+		maybeDeflate();
+		return sum();
+	}
+
+	private long sum() {
+		for (int spins = 0; ; spins++) {
+			int seq = drainSeq;
+			if ((seq & 1) == 0) {
+				long sum = base;
+				AtomicLongArray cs = cells;
+				if (cs != null) {
+					for (int i = 0; i <= mask; i++) {
+						long v = cs.get(i * PAD);
+						if (v != DRAINED) {
+							sum += v;
+						}
+					}
+				}
+				if (drainSeq == seq) {
+					return sum;
+				}
+			}
+			AbstractSpinLock.spin(spins);
+		}
+	}
+
+	@Override
+	public void addLong(long i) {
+		int[] probe = null;
+		int h = 0;
+		for (; ; ) {
+			AtomicLongArray cs = cells;
+			if (cs == null) {
+				long b = base;
+				if (BASE.compareAndSet(this, b, b + i)) {
+					return;
+				}
+				long now = System.nanoTime();
+				if (now - lastContention >= quietNanos) {
+					// 上一次失败太久了, 重新计数
+					contended = 0;
+				}
+				lastContention = now;
+				if (CONTENDED.incrementAndGet(this) >= inflateThreshold) {
+					inflate();
+				}
+				continue;
+			}
+
+			if (probe == null) {
+				probe = StripedCounter.probe();
+				h = probe[0];
+			}
+			int index = (h & mask) * PAD;
+			long v = cs.get(index);
+			if (v == DRAINED) {
+				// 正在收缩, 让收缩的线程先做完, 再重新读取 cells
+				Thread.yield();
+				continue;
+			}
+			if (cs.compareAndSet(index, v, v + i)) {
+				if (((v + i) ^ v) >>> DEFLATE_CHECK_SHIFT != 0) {
+					maybeDeflate();
+				}
+				return;
+			}
+			lastContention = System.nanoTime();
+			h = StripedCounter.rehash(h);
+			probe[0] = h;
+		}
+	}
+
+	private void inflate() {
+		AtomicLongArray cs = new AtomicLongArray((mask + 1) * PAD);
+		if (CELLS.compareAndSet(this, null, cs)) {
+			lastContention = System.nanoTime();
+			contended = 0;
+			INFLATIONS.incrementAndGet(this);
+		}
+	}
+
+	/**
+	 * drainSeq 从偶数 CAS 成奇数的线程负责收缩, 同一时间只有一个
+	 */
+	private void maybeDeflate() {
+		if (cells == null || System.nanoTime() - lastContention < quietNanos) {
+			return;
+		}
+		int seq = drainSeq;
+		if ((seq & 1) != 0 || !DRAIN_SEQ.compareAndSet(this, seq, seq + 1)) {
+			return;
+		}
+		try {
+			AtomicLongArray cs = cells;
+			if (cs != null) {
+				drain(cs);
+				contended = 0;
+				DEFLATIONS.incrementAndGet(this);
+			}
+		} finally {
+			drainSeq = seq + 2;
+		}
+	}
+
+	/**
+	 * 旧的 cell 全部加到 base 上之后才置空 cells, 在这之前写线程读到 DRAINED 会一直重读 cells
+	 */
+	private void drain(AtomicLongArray cs) {
+		long sum = 0;
+		for (int i = 0; i <= mask; i++) {
+			sum += cs.getAndSet(i * PAD, DRAINED);
+		}
+		BASE.getAndAdd(this, sum);
+		cells = null;
+	}
+
+	@Override
+	public long sumThenReset() {
+		maybeDeflate();
+		long sum = BASE.getAndSet(this, 0);
+		AtomicLongArray cs = cells;
+		if (cs != null) {
+			for (int i = 0; i <= mask; i++) {
+				long v;
+				do {
+					v = cs.get(i * PAD);
+				} while (v != DRAINED && !cs.compareAndSet(i * PAD, v, 0));
+				if (v != DRAINED) {
+					sum += v;
+				}
+			}
+		}
+		return sum;
+	}
+
+	public boolean isInflated() {
+		return cells != null;
+	}
+
+	public int inflations() {
+		return inflations;
+	}
+
+	public int deflations() {
+		return deflations;
+	}
+}
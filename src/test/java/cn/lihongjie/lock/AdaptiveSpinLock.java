@@ -0,0 +1,182 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 先自旋再休眠的锁, 自旋的时间根据最近的持有时间自动调整
+ * <p>
+ * LockTest 里说过, 马上就能拿到锁的时候进行上下文切换是不理智的; 但是 ReentrantLock 几乎马上就休眠, 纯自旋锁在线程数超过 CPU 数的时候又浪费 CPU.
+ * <p>
+ * 这里拿不到锁的时候先自旋一段时间, 时间是最近持有时间的滑动平均的两倍: 锁一般很快就会释放, 自旋一下就能拿到;
+ * 锁一般要持有很久, 两倍的持有时间超过 maxSpin, 自旋到上限也等不到释放, 这时候不自旋, 直接排队休眠. 单核的机器上持有锁的线程不可能和自旋的线程同时运行, 所以不自旋
+ * <p>
+ * 排队和休眠交给 AbstractQueuedSynchronizer, 所以也支持条件变量. 锁不可重入, 不公平
+ *
+ * @author 982264618@qq.com
+ */
+public class AdaptiveSpinLock implements Lock {
+
+	private static final boolean MULTI_CORE = Runtime.getRuntime().availableProcessors() > 1;
+
+	private final Sync sync = new Sync();
+	private final long maxSpinNanos;
+
+	/**
+	 * 持有时间的滑动平均, 只有持有锁的线程会写
+	 */
+	private volatile long holdNanos;
+
+	/**
+	 * 只有持有锁的线程会写
+	 */
+	private volatile long acquires;
+	private volatile long parks;
+
+	public AdaptiveSpinLock() {
+		this(50, TimeUnit.MICROSECONDS);
+	}
+
+	public AdaptiveSpinLock(long maxSpin, TimeUnit unit) {
+		this.maxSpinNanos = unit.toNanos(maxSpin);
+	}
+
+	@Override
+	public void lock() {
+		if (!sync.tryAcquire(1) && !spin(spinBudgetNanos())) {
+			sync.acquire(1);
+			parks++;
+		}
+		acquires++;
+	}
+
+	@Override
+	public void lockInterruptibly() throws InterruptedException {
+		if (!sync.tryAcquire(1) && !spin(spinBudgetNanos())) {
+			sync.acquireInterruptibly(1);
+			parks++;
+		}
+		acquires++;
+	}
+
+	@Override
+	public boolean tryLock() {
+		if (sync.tryAcquire(1)) {
+			acquires++;
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+		long timeout = unit.toNanos(time);
+		if (sync.tryAcquire(1) || spin(Math.min(spinBudgetNanos(), timeout))) {
+			acquires++;
+			return true;
+		}
+		if (sync.tryAcquireNanos(1, timeout)) {
+			parks++;
+			acquires++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 在 budget 时间内自旋, 只有看到锁空闲的时候才 CAS
+	 */
+	private boolean spin(long budget) {
+		if (budget <= 0) {
+			return false;
+		}
+		long deadline = System.nanoTime() + budget;
+		do {
+			if (sync.isFree() && sync.tryAcquire(1)) {
+				return true;
+			}
+		} while (System.nanoTime() - deadline < 0);
+		return false;
+	}
+
+	@Override
+	public void unlock() {
+		sync.release(1);
+	}
+
+	@Override
+	public Condition newCondition() {
+		return sync.newCondition();
+	}
+
+	/**
+	 * 当前的自旋预算, 超过 maxSpin 的时候是 0
+	 */
+	public long spinBudgetNanos() {
+		if (!MULTI_CORE) {
+			return 0;
+		}
+		long budget = holdNanos * 2;
+		return budget > maxSpinNanos ? 0 : budget;
+	}
+
+	/**
+	 * 自旋之后还是拿不到锁, 只能休眠的比例
+	 */
+	public double parkRate() {
+		long acquires = this.acquires;
+		return acquires == 0 ? 0 : (double) parks / acquires;
+	}
+
+	public long averageHoldNanos() {
+		return holdNanos;
+	}
+
+	private final class Sync extends AbstractQueuedSynchronizer {
+
+		private static final long serialVersionUID = -4213685419361385142L;
+
+		/**
+		 * 只有持有锁的线程会读写
+		 */
+		private long acquiredAt;
+
+		boolean isFree() {
+			return getState() == 0;
+		}
+
+		@Override
+		protected boolean tryAcquire(int arg) {
+			if (compareAndSetState(0, 1)) {
+				setExclusiveOwnerThread(Thread.currentThread());
+				acquiredAt = System.nanoTime();
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		protected boolean tryRelease(int arg) {
+			if (getExclusiveOwnerThread() != Thread.currentThread()) {
+				throw new IllegalMonitorStateException();
+			}
+			long hold = System.nanoTime() - acquiredAt;
+			// 权重 1/8 的滑动平均
+			holdNanos = holdNanos + ((hold - holdNanos) >> 3);
+			setExclusiveOwnerThread(null);
+			setState(0);
+			return true;
+		}
+
+		@Override
+		protected boolean isHeldExclusively() {
+			return getExclusiveOwnerThread() == Thread.currentThread();
+		}
+
+		Condition newCondition() {
+			return new ConditionObject();
+		}
+	}
+}
@@ -0,0 +1,240 @@
+package cn.lihongjie.lock;
+
+import org.hamcrest.core.Is;
+import org.junit.*;
+import org.junit.rules.Stopwatch;
+import org.junit.runner.Description;
+import org.nutz.log.Log;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+import static org.nutz.log.Logs.get;
+
+/**
+ * 近似计数和精确计数的对比
+ * <p>
+ * 精确计数的内存随 key 的数量增长, Count-Min Sketch 和 HyperLogLog 的内存是固定的, 代价是结果有误差
+ *
+ * @author 982264618@qq.com
+ */
+public class ApproximateCountingTest {
+	private static Log logger = get();
+
+	private static final int threadCount = 10;
+	private static final int eventsPerThread = 100000;
+	private static final int keySpace = 100000;
+	private ExecutorService threadPool;
+
+
+	private static void logInfo(Description description, String status, long nanos) {
+		String testName = description.getMethodName();
+		logger.info(String.format("Test %s %s, spent %d microseconds",
+				testName, status, TimeUnit.NANOSECONDS.toMicros(nanos)));
+	}
+
+	@Rule
+	public Stopwatch stopwatch = new Stopwatch() {
+		@Override
+		protected void succeeded(long nanos, Description description) {
+			logInfo(description, "succeeded", nanos);
+		}
+
+		@Override
+		protected void failed(long nanos, Throwable e, Description description) {
+			logInfo(description, "failed", nanos);
+		}
+
+
+		@Override
+		protected void finished(long nanos, Description description) {
+//			logInfo(description, "finished", nanos);
+		}
+	};
+
+
+	@Before
+	public void setUp() throws Exception {
+		threadPool = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		threadPool.shutdownNow();
+	}
+
+
+	/**
+	 * 精确计数的基准
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentHashMapConcurrent() throws Exception {
+
+		Map<Long, LongAdder> exact = exact();
+
+		logger.info(String.format("distinct keys %d", exact.size()));
+	}
+
+
+	@Test
+	public void testCountMinSketchConcurrent() throws Exception {
+
+		CountMinSketch sketch = new CountMinSketch(4, 4096);
+
+		concurrentAdd(key -> sketch.add(key, 1));
+	}
+
+
+	@Test
+	public void testHyperLogLogConcurrent() throws Exception {
+
+		HyperLogLog hll = new HyperLogLog(12);
+
+		concurrentAdd(hll::add);
+	}
+
+
+	/**
+	 * 估计值不会偏小, 偏大的部分不超过 e / width * 总数
+	 * @throws Exception
+	 */
+	@Test
+	public void testCountMinSketchAccuracy() throws Exception {
+
+		CountMinSketch sketch = new CountMinSketch(4, 4096);
+		concurrentAdd(key -> sketch.add(key, 1));
+		Map<Long, LongAdder> exact = exact();
+
+		long total = (long) threadCount * eventsPerThread;
+		double bound = Math.E / sketch.width() * total;
+		int outOfBound = 0;
+		for (Map.Entry<Long, LongAdder> entry : exact.entrySet()) {
+			long error = sketch.estimate(entry.getKey()) - entry.getValue().sum();
+			Assert.assertTrue(error >= 0);
+			if (error > bound) {
+				outOfBound++;
+			}
+		}
+		logger.info(String.format("%d of %d keys out of bound %.1f", outOfBound, exact.size(), bound));
+		// 每个 key 超出误差上界的概率是 e^-depth, 大约 1.8%
+		Assert.assertTrue(outOfBound < exact.size() * 0.02);
+	}
+
+
+	@Test
+	public void testHeavyHitters() throws Exception {
+
+		HeavyHitters hitters = new HeavyHitters(10, 4, 4096);
+		concurrentAdd(key -> hitters.add(key, 1));
+		Map<Long, LongAdder> exact = exact();
+
+		long[] expected = exact.entrySet().stream()
+				.sorted((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()))
+				.limit(5)
+				.mapToLong(Map.Entry::getKey)
+				.toArray();
+		long[] top = hitters.top();
+		for (long key : expected) {
+			boolean found = false;
+			for (long t : top) {
+				found |= t == key;
+			}
+			Assert.assertTrue("missing heavy hitter " + key, found);
+		}
+	}
+
+
+	/**
+	 * 标准误差 1.04 / sqrt(4096) 大约 1.6%
+	 * @throws Exception
+	 */
+	@Test
+	public void testHyperLogLogAccuracy() throws Exception {
+
+		HyperLogLog hll = new HyperLogLog(12);
+		concurrentAdd(hll::add);
+		int distinct = exact().size();
+
+		double error = Math.abs(hll.estimate() - distinct) / (double) distinct;
+		logger.info(String.format("distinct %d, estimate %d, error %.4f", distinct, hll.estimate(), error));
+		Assert.assertTrue(error < 0.05);
+	}
+
+
+	/**
+	 * 分开统计再合并, 和一起统计的结果一样
+	 * @throws Exception
+	 */
+	@Test
+	public void testMerge() throws Exception {
+
+		CountMinSketch a = new CountMinSketch(4, 1024);
+		CountMinSketch b = new CountMinSketch(4, 1024);
+		CountMinSketch all = new CountMinSketch(4, 1024);
+		HyperLogLog ha = new HyperLogLog(10);
+		HyperLogLog hb = new HyperLogLog(10);
+		HyperLogLog hall = new HyperLogLog(10);
+		for (long key = 0; key < 10000; key++) {
+			(key % 2 == 0 ? a : b).add(key % 777, 1);
+			all.add(key % 777, 1);
+			(key % 2 == 0 ? ha : hb).add(key);
+			hall.add(key);
+		}
+
+		CountMinSketch merged = a.snapshot();
+		merged.merge(b);
+		HyperLogLog hmerged = ha.snapshot();
+		hmerged.merge(hb);
+		for (long key = 0; key < 777; key++) {
+			Assert.assertThat(merged.estimate(key), Is.is(all.estimate(key)));
+		}
+		Assert.assertThat(hmerged.estimate(), Is.is(hall.estimate()));
+	}
+
+
+	private Map<Long, LongAdder> exact() throws InterruptedException {
+		ConcurrentHashMap<Long, LongAdder> exact = new ConcurrentHashMap<>();
+		concurrentAdd(key -> exact.computeIfAbsent(key, k -> new LongAdder()).increment());
+		return exact;
+	}
+
+	/**
+	 * 偏斜的分布, 小的 key 出现的次数多, 每个线程的随机种子固定, 所以结果是确定的
+	 */
+	private void concurrentAdd(LongConsumer adder) throws InterruptedException {
+
+		CountDownLatch latch = new CountDownLatch(threadCount);
+		for (int i = 0; i < threadCount; i++) {
+
+
+			Random random = new Random(i);
+			threadPool.submit(() -> {
+
+
+				for (int j = 0; j < eventsPerThread; j++) {
+
+					double r = random.nextDouble();
+					adder.accept((long) (r * r * r * keySpace));
+
+
+				}
+
+				latch.countDown();
+
+			});
+
+
+		}
+
+
+		latch.await();
+	}
+}
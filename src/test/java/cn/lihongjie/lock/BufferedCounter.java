@@ -0,0 +1,161 @@
+package cn.lihongjie.lock;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * 线程本地缓冲的计数器, 包装任意一个 Counter
+ * <p>
+ * 每个线程先把增量累加在自己的缓冲区里, 只有满足下面的条件之一才发布到被包装的计数器:
+ * 1. 缓冲区累计了 batchSize 次增量
+ * 2. 距离上次发布超过了 interval, 写线程每 CLOCK_CHECK_EVERY 次增量才读一次时钟, 加得慢的线程靠 get 发布
+ * 3. get/flush 的时候线程已经超时或者已经退出
+ * <p>
+ * 热点路径上只写线程自己的缓冲区, 不和其他线程争抢, 代价是 get 的结果是最终一致的:
+ * 每个线程最多有 batchSize - 1 次增量没有发布, 并且任何一次增量在 interval 之后一定能被 get 看到
+ * <p>
+ * 线程退出的时候没有回调, 它最后没有发布的增量要等下一次 get/flush/sumThenReset 发现线程已经退出才发布,
+ * 在那之前直接读被包装的计数器是看不到的. 关闭之前调用 flush, 所有缓冲区里的增量都会被发布, 不会丢失
+ *
+ * @author 982264618@qq.com
+ */
+public class BufferedCounter implements Counter {
+
+	/**
+	 * 写线程每隔多少次增量检查一次 interval, System.nanoTime 不便宜, 不能每次增量都调用. 必须是 2 的幂
+	 */
+	private static final int CLOCK_CHECK_EVERY = 64;
+
+	private static final AtomicLongFieldUpdater<Buffer> ADDED = AtomicLongFieldUpdater.newUpdater(Buffer.class, "added");
+
+	private final Counter backing;
+	private final int batchSize;
+	private final long intervalNanos;
+
+	private final Set<Buffer> buffers = ConcurrentHashMap.newKeySet();
+	private final ThreadLocal<Buffer> local = ThreadLocal.withInitial(this::register);
+
+	public BufferedCounter(Counter backing, int batchSize, long interval, TimeUnit unit) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+		}
+		this.backing = backing;
+		this.batchSize = batchSize;
+		this.intervalNanos = unit.toNanos(interval);
+	}
+
+	private Buffer register() {
+		Buffer buffer = new Buffer(Thread.currentThread());
+		buffers.add(buffer);
+		return buffer;
+	}
+
+	/**
+	 * 先把超时的和线程已经退出的缓冲区发布, 再读取被包装的计数器
+	 */
+	@Override
+	public long getLong() {
+		long now = System.nanoTime();
+		for (Buffer buffer : buffers) {
+			if (!buffer.owner.isAlive()) {
+				buffer.publish(now);
+				buffers.remove(buffer);
+			} else if (now - buffer.lastPublish >= intervalNanos) {
+				buffer.publish(now);
+			}
+		}
+		return backing.getLong();
+	}
+
+	@Override
+	public void addLong(long i) {
+		Buffer buffer = local.get();
+		// 只有当前线程会写 added, 有序写就够了, 不需要 CAS
+		ADDED.lazySet(buffer, buffer.added + i);
+		int pending = ++buffer.pending;
+		if (pending >= batchSize) {
+			buffer.pending = 0;
+			buffer.publish(System.nanoTime());
+		} else if ((pending & (CLOCK_CHECK_EVERY - 1)) == 0) {
+			long now = System.nanoTime();
+			if (now - buffer.lastPublish >= intervalNanos) {
+				buffer.pending = 0;
+				buffer.publish(now);
+			}
+		}
+	}
+
+	@Override
+	public long sumThenReset() {
+		flush();
+		return backing.sumThenReset();
+	}
+
+	/**
+	 * 发布所有线程的缓冲区, 关闭之前调用
+	 */
+	public void flush() {
+		long now = System.nanoTime();
+		for (Buffer buffer : buffers) {
+			buffer.publish(now);
+			if (!buffer.owner.isAlive()) {
+				buffers.remove(buffer);
+			}
+		}
+	}
+
+	/**
+	 * 每个线程最多有多少次增量还没有发布
+	 */
+	public int maxUnpublishedPerThread() {
+		return batchSize - 1;
+	}
+
+	/**
+	 * 一次增量最多过多久能被 get 看到
+	 */
+	public long maxStaleness(TimeUnit unit) {
+		return unit.convert(intervalNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private final class Buffer {
+
+		final Thread owner;
+
+		/**
+		 * 当前线程累计加了多少, 只有 owner 会写
+		 */
+		volatile long added;
+
+		/**
+		 * 只有 owner 读写
+		 */
+		int pending;
+
+		/**
+		 * 已经发布到 backing 的部分, 由 this 保护
+		 */
+		long published;
+
+		volatile long lastPublish = System.nanoTime();
+
+		Buffer(Thread owner) {
+			this.owner = owner;
+		}
+
+		/**
+		 * owner 和 get/flush 的线程都可能发布, 发布的频率很低, 直接上锁
+		 */
+		synchronized void publish(long now) {
+			long added = this.added;
+			long delta = added - published;
+			if (delta != 0) {
+				published = added;
+				backing.addLong(delta);
+			}
+			lastPublish = now;
+		}
+	}
+}
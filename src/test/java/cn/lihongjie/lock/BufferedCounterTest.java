@@ -0,0 +1,192 @@
+package cn.lihongjie.lock;
+
+import org.hamcrest.core.Is;
+import org.junit.*;
+import org.junit.rules.Stopwatch;
+import org.junit.runner.Description;
+import org.nutz.log.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.nutz.log.Logs.get;
+
+/**
+ * 线程本地缓冲的计数器只保证最终一致, 但是 flush 之后不能丢失任何增量
+ *
+ * @author 982264618@qq.com
+ */
+public class BufferedCounterTest {
+	private static Log logger = get();
+
+	private static final int count = 10000;
+	private ExecutorService threadPool;
+
+
+	private static void logInfo(Description description, String status, long nanos) {
+		String testName = description.getMethodName();
+		logger.info(String.format("Test %s %s, spent %d microseconds",
+				testName, status, TimeUnit.NANOSECONDS.toMicros(nanos)));
+	}
+
+	@Rule
+	public Stopwatch stopwatch = new Stopwatch() {
+		@Override
+		protected void succeeded(long nanos, Description description) {
+			logInfo(description, "succeeded", nanos);
+		}
+
+		@Override
+		protected void failed(long nanos, Throwable e, Description description) {
+			logInfo(description, "failed", nanos);
+		}
+
+
+		@Override
+		protected void finished(long nanos, Description description) {
+//			logInfo(description, "finished", nanos);
+		}
+	};
+
+
+	@Before
+	public void setUp() throws Exception {
+		threadPool = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		threadPool.shutdownNow();
+	}
+
+
+	@Test
+	public void testBufferedSyncCounterConcurrentFlush() throws Exception {
+
+		BufferedCounter counter = new BufferedCounter(new SyncCounter(0), 64, 1, TimeUnit.HOURS);
+
+		concurrentThreadAdd(counter, 10);
+
+		counter.flush();
+		Assert.assertThat(counter.get(), Is.is(count));
+	}
+
+
+	@Test
+	public void testBufferedRRCounterConcurrentFlush() throws Exception {
+
+		BufferedCounter counter = new BufferedCounter(new RRCounter(0), 64, 1, TimeUnit.HOURS);
+
+		concurrentThreadAdd(counter, 10);
+
+		counter.flush();
+		Assert.assertThat(counter.get(), Is.is(count));
+	}
+
+
+	/**
+	 * 没有 flush 的时候, 每个线程最多缓冲 batchSize - 1 次增量
+	 * @throws Exception
+	 */
+	@Test
+	public void testUnpublishedBound() throws Exception {
+
+		BufferedCounter counter = new BufferedCounter(new SyncCounter(0), 64, 1, TimeUnit.HOURS);
+
+		concurrentThreadAdd(counter, 10);
+
+		int lost = count - counter.get();
+		logger.info(String.format("unpublished %d, bound %d", lost, 10 * counter.maxUnpublishedPerThread()));
+		Assert.assertTrue(lost >= 0 && lost <= 10 * counter.maxUnpublishedPerThread());
+	}
+
+
+	/**
+	 * 超过 interval 之后, get 会把过期的缓冲区发布
+	 * @throws Exception
+	 */
+	@Test
+	public void testStalenessBound() throws Exception {
+
+		BufferedCounter counter = new BufferedCounter(new SyncCounter(0), Integer.MAX_VALUE, 10, TimeUnit.MILLISECONDS);
+
+		concurrentThreadAdd(counter, 10);
+
+		Thread.sleep(counter.maxStaleness(TimeUnit.MILLISECONDS));
+		Assert.assertThat(counter.get(), Is.is(count));
+	}
+
+
+	/**
+	 * 写线程不是每次增量都读时钟, 但是超过 interval 之后最多再加 64 次就会自己发布, 不需要 get
+	 * @throws Exception
+	 */
+	@Test
+	public void testIntervalCheckedOnAddPath() throws Exception {
+
+		SyncCounter backing = new SyncCounter(0);
+		BufferedCounter counter = new BufferedCounter(backing, Integer.MAX_VALUE, 1, TimeUnit.MILLISECONDS);
+
+		counter.add(1);
+		Thread.sleep(5);
+		int added = 1;
+		while (backing.get() == 0 && added < 64) {
+			counter.add(1);
+			added++;
+		}
+		Assert.assertThat(backing.get(), Is.is(added));
+		Assert.assertThat(added % 64, Is.is(0));
+	}
+
+
+	/**
+	 * 线程退出之后它的缓冲区会被发布
+	 * @throws Exception
+	 */
+	@Test
+	public void testFlushOnThreadExit() throws Exception {
+
+		BufferedCounter counter = new BufferedCounter(new SyncCounter(0), Integer.MAX_VALUE, 1, TimeUnit.HOURS);
+
+		Thread thread = new Thread(() -> {
+			for (int i = 0; i < count; i++) {
+				counter.add(1);
+			}
+		});
+		thread.start();
+		thread.join();
+
+		Assert.assertThat(counter.get(), Is.is(count));
+	}
+
+
+	private void concurrentThreadAdd(Counter counter, int threadCount) throws InterruptedException {
+
+		CountDownLatch latch = new CountDownLatch(threadCount);
+		int each = count / threadCount;
+		for (int i = 0; i < threadCount; i++) {
+
+
+			threadPool.submit(() -> {
+
+
+				for (int j = 0; j < each; j++) {
+
+					counter.add(1);
+
+
+				}
+
+				latch.countDown();
+
+			});
+
+
+		}
+
+
+		latch.await();
+	}
+}
@@ -0,0 +1,75 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * CLH 队列锁
+ * <p>
+ * 和 MCS 一样每个线程只在一个节点上自旋, 不同的是 CLH 在前驱节点上自旋, 队列是隐式的, 只需要一个 tail.
+ * AbstractQueuedSynchronizer 的队列就是 CLH 的变种
+ * <p>
+ * 释放锁之后当前节点还会被后继读取, 所以不能复用自己的节点, 而是接管前驱的节点, 前驱已经释放, 不会再有人读它.
+ * 每个线程持有的节点在 ThreadLocal 里, 加锁和解锁都不分配内存
+ * <p>
+ * 和 TicketLock 一样, tryLock 和 lockInterruptibly 不排队, 只在锁空闲的时候抢锁.
+ * 因为节点会被复用, tail.get() 读到的空闲节点在 CAS 之前可能已经被别的线程解锁, 加锁, 又放回 tail(ABA), CAS 依然会成功.
+ * 所以 CAS 成功之后要再检查一次前驱: CAS 成功说明已经正确地排在前驱后面了, 不能退出队列, 前驱被复用的话就等它释放.
+ * 这种情况很少见, 代价是 tryLock 偶尔要等一个临界区
+ *
+ * @author 982264618@qq.com
+ */
+public class CLHLock extends AbstractSpinLock {
+
+	private final AtomicReference<Node> tail = new AtomicReference<>(new Node());
+	private final ThreadLocal<Holder> holder = ThreadLocal.withInitial(Holder::new);
+
+	@Override
+	protected boolean tryAcquire() {
+		Holder h = holder.get();
+		Node pred = tail.get();
+		if (pred.locked) {
+			return false;
+		}
+		h.node.locked = true;
+		if (tail.compareAndSet(pred, h.node)) {
+			h.pred = pred;
+			// pred 可能在 tail.get() 之后被复用, 重新加锁
+			for (int i = 0; pred.locked; i++) {
+				spin(i);
+			}
+			return true;
+		}
+		h.node.locked = false;
+		return false;
+	}
+
+	@Override
+	protected void acquire() {
+		Holder h = holder.get();
+		Node node = h.node;
+		node.locked = true;
+		Node pred = tail.getAndSet(node);
+		h.pred = pred;
+		for (int i = 0; pred.locked; i++) {
+			spin(i);
+		}
+	}
+
+	@Override
+	protected void release() {
+		Holder h = holder.get();
+		h.node.locked = false;
+		// 接管前驱的节点
+		h.node = h.pred;
+		h.pred = null;
+	}
+
+	private static final class Node {
+		volatile boolean locked;
+	}
+
+	private static final class Holder {
+		Node node = new Node();
+		Node pred;
+	}
+}
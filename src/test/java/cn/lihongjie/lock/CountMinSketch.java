@@ -0,0 +1,99 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-Min Sketch, 用固定的内存估计每个 key 的频率
+ * <p>
+ * depth 行, 每行 width 个计数, 每行用不同的 hash 把 key 映射到一个计数上, add 的时候每行加一次, 估计的时候取每行的最小值.
+ * 估计值不会偏小, 偏大的部分以 1 - e^-depth 的概率不超过 e / width * 总数
+ * <p>
+ * 所有的计数都在一个 AtomicLongArray 里, add 只有 depth 次 getAndAdd, 没有锁.
+ * 相同参数的两个 sketch 可以直接按位置相加合并
+ *
+ * @author 982264618@qq.com
+ */
+public class CountMinSketch {
+
+	private final int depth;
+	private final int width;
+	private final int mask;
+	private final AtomicLongArray counts;
+
+	public CountMinSketch(int depth, int width) {
+		if (depth < 1 || width < 1) {
+			throw new IllegalArgumentException("depth and width must be positive");
+		}
+		int size = 1;
+		while (size < width) {
+			size <<= 1;
+		}
+		this.depth = depth;
+		this.width = size;
+		this.mask = size - 1;
+		this.counts = new AtomicLongArray(depth * size);
+	}
+
+	static long mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	private int index(int row, long key) {
+		// 每一行用不同的种子
+		long h = mix(key + row * 0x9E3779B97F4A7C15L);
+		return row * width + ((int) h & mask);
+	}
+
+	public void add(long key, long count) {
+		for (int row = 0; row < depth; row++) {
+			counts.getAndAdd(index(row, key), count);
+		}
+	}
+
+	public long estimate(long key) {
+		long min = Long.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			min = Math.min(min, counts.get(index(row, key)));
+		}
+		return min;
+	}
+
+	/**
+	 * 把另一个 sketch 的计数加到当前的 sketch 上, 两个 sketch 的 depth 和 width 必须一样
+	 */
+	public void merge(CountMinSketch other) {
+		if (other.depth != depth || other.width != width) {
+			throw new IllegalArgumentException("sketch shape mismatch");
+		}
+		for (int i = 0; i < counts.length(); i++) {
+			long v = other.counts.get(i);
+			if (v != 0) {
+				counts.getAndAdd(i, v);
+			}
+		}
+	}
+
+	/**
+	 * 复制一份当前的计数, 有并发写的时候每个计数各自是准确的, 但是不同的行之间不是同一时刻
+	 */
+	public CountMinSketch snapshot() {
+		CountMinSketch copy = new CountMinSketch(depth, width);
+		for (int i = 0; i < counts.length(); i++) {
+			copy.counts.set(i, counts.get(i));
+		}
+		return copy;
+	}
+
+	public int depth() {
+		return depth;
+	}
+
+	public int width() {
+		return width;
+	}
+}
@@ -1,10 +1,40 @@
 package cn.lihongjie.lock;
 
 /**
+ * 实现类只需要实现 64 位的 getLong / addLong 和 sumThenReset, int 版本和批量添加默认都转给它们.
+ * 只有能做得更好的时候才需要覆盖(比如一次同步把整批加上)
+ *
  * @author 982264618@qq.com
  */
 public interface Counter {
-	int get();
+	default int get() {
+		return (int) getLong();
+	}
 
-	void add(int i);
+	default void add(int i) {
+		addLong(i);
+	}
+
+	/**
+	 * int 很快就会溢出, 统计用的计数器需要 64 位
+	 */
+	long getLong();
+
+	void addLong(long i);
+
+	/**
+	 * 批量添加, 一批只需要同步一次, 而不是每一个增量同步一次
+	 */
+	default void addAll(int[] deltas) {
+		long sum = 0;
+		for (int delta : deltas) {
+			sum += delta;
+		}
+		addLong(sum);
+	}
+
+	/**
+	 * 返回当前的值并清零
+	 */
+	long sumThenReset();
 }
@@ -1,5 +1,7 @@
 package cn.lihongjie.lock;
 
+import org.hamcrest.core.Is;
+import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
@@ -7,10 +9,18 @@ import org.junit.rules.Stopwatch;
 import org.junit.runner.Description;
 import org.nutz.log.Log;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.nutz.log.Logs.get;
 
 /**
@@ -113,4 +123,275 @@ public class DeadLockTest {
 
 
 	}
+
+
+	/**
+	 * 和上面一样, 两个线程以相反的顺序传入 A 锁和 B 锁, LockSet 按全局顺序加锁, 不会死锁
+	 * @throws Exception
+	 */
+	@Test
+	public void testGlobalOrderWithLockSet() throws Exception {
+
+		ReentrantLock lockA = new ReentrantLock();
+		ReentrantLock lockB = new ReentrantLock();
+		int[] shared = {0};
+
+		Thread ta = new Thread(() -> transferMany(() -> LockSet.lockAll(lockA, lockB), shared));
+		Thread tb = new Thread(() -> transferMany(() -> LockSet.lockAll(lockB, lockA), shared));
+
+		ta.start();
+		tb.start();
+		ta.join();
+		tb.join();
+
+		Assert.assertThat(shared[0], Is.is(2 * transfers));
+	}
+
+
+	/**
+	 * 按相反的顺序 tryLock, 拿不到就全部释放, 随机退避之后重试
+	 * @throws Exception
+	 */
+	@Test
+	public void testTryLockWithBackoff() throws Exception {
+
+		ReentrantLock lockA = new ReentrantLock();
+		ReentrantLock lockB = new ReentrantLock();
+		int[] shared = {0};
+
+		Thread ta = new Thread(() -> transferMany(() -> tryLockAll(lockA, lockB), shared));
+		Thread tb = new Thread(() -> transferMany(() -> tryLockAll(lockB, lockA), shared));
+
+		ta.start();
+		tb.start();
+		ta.join();
+		tb.join();
+
+		Assert.assertThat(shared[0], Is.is(2 * transfers));
+	}
+
+
+	/**
+	 * 一个线程一直持有锁, 另一个线程超时之后放弃, 并且不持有任何锁
+	 * @throws Exception
+	 */
+	@Test
+	public void testTryLockTimeout() throws Exception {
+
+		ReentrantLock lockA = new ReentrantLock();
+		ReentrantLock lockB = new ReentrantLock();
+		lockB.lock();
+
+		Thread ta = new Thread(() -> {
+			try {
+				Assert.assertNull(LockSet.tryLockAll(50, MILLISECONDS, lockA, lockB));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		ta.start();
+		ta.join();
+
+		Assert.assertFalse(lockA.isLocked());
+		lockB.unlock();
+		try (LockSet locks = LockSet.tryLockAll(50, MILLISECONDS, lockA, lockB, lockA)) {
+			Assert.assertNotNull(locks);
+			Assert.assertThat(lockA.getHoldCount(), Is.is(1));
+		}
+		Assert.assertFalse(lockA.isLocked());
+		Assert.assertFalse(lockB.isLocked());
+	}
+
+
+
+	/**
+	 * testDeadLock 的两个线程先后运行, 不会真的死锁, 但是加锁顺序相反, 第二个线程加锁的时候就能发现
+	 * @throws Exception
+	 */
+	@Test
+	public void testLockOrderCycleDetected() throws Exception {
+
+		List<List<String>> cycles = new CopyOnWriteArrayList<>();
+		LockOrderDetector detector = new LockOrderDetector(1, 1, SECONDS, listener(cycles, new AtomicLong()));
+		Lock lockA = detector.wrap(new ReentrantLock(), "A");
+		Lock lockB = detector.wrap(new ReentrantLock(), "B");
+
+		Thread ta = new Thread(() -> lockInOrder(lockA, lockB));
+		ta.start();
+		ta.join();
+		Assert.assertThat(detector.cycles(), Is.is(0L));
+
+		Thread tb = new Thread(() -> lockInOrder(lockB, lockA));
+		tb.start();
+		tb.join();
+		detector.close();
+
+		logger.info(format("cycles %s", cycles));
+		Assert.assertThat(detector.cycles(), Is.is(1L));
+		Assert.assertThat(cycles.get(0), Is.is(Arrays.asList("B", "A", "B")));
+	}
+
+
+	/**
+	 * 每条加锁路径有 1/10 的概率被检查, 两种顺序交替出现, 抽样是随机的, 两种路径都会被抽中
+	 * @throws Exception
+	 */
+	@Test
+	public void testLockOrderSampled() throws Exception {
+
+		LockOrderDetector detector = new LockOrderDetector(10, 1, SECONDS, listener(new CopyOnWriteArrayList<>(), new AtomicLong()));
+		Lock lockA = detector.wrap(new ReentrantLock(), "A");
+		Lock lockB = detector.wrap(new ReentrantLock(), "B");
+
+		for (int i = 0; i < 1000; i++) {
+			lockInOrder(lockA, lockB);
+			lockInOrder(lockB, lockA);
+		}
+		detector.close();
+
+		Assert.assertThat(detector.cycles(), Is.is(1L));
+	}
+
+
+	/**
+	 * 一个线程持有锁 100 毫秒, 另一个线程等待超过 10 毫秒就报告
+	 * @throws Exception
+	 */
+	@Test
+	public void testStallDetected() throws Exception {
+
+		AtomicLong stalled = new AtomicLong();
+		LockOrderDetector detector = new LockOrderDetector(1, 10, MILLISECONDS, listener(new CopyOnWriteArrayList<>(), stalled));
+		Lock lock = detector.wrap(new ReentrantLock(), "slow");
+		CountDownLatch locked = new CountDownLatch(1);
+		AtomicLong stallsWhileHeld = new AtomicLong();
+
+		Thread holder = new Thread(() -> {
+			lock.lock();
+			try {
+				locked.countDown();
+				Thread.sleep(100);
+				// 还没有释放, 等待的线程已经报告了
+				stallsWhileHeld.set(detector.stalls());
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			} finally {
+				lock.unlock();
+			}
+		});
+		holder.start();
+		locked.await();
+
+		lock.lock();
+		lock.unlock();
+		holder.join();
+		detector.close();
+
+		Assert.assertThat(stallsWhileHeld.get(), Is.is(1L));
+		Assert.assertThat(detector.stalls(), Is.is(1L));
+		Assert.assertTrue(stalled.get() >= MILLISECONDS.toNanos(10));
+		Assert.assertTrue(stalled.get() < MILLISECONDS.toNanos(100));
+	}
+
+
+	/**
+	 * 公平锁上等待超过阈值之后, 报告 stall 的同时还要保持排队的位置.
+	 * waiter 先排队, 直接用原始锁的 other 后排队, 释放之后 waiter 要先拿到锁
+	 * @throws Exception
+	 */
+	@Test
+	public void testStallKeepsQueuePosition() throws Exception {
+
+		LockOrderDetector detector = new LockOrderDetector(1, 5, MILLISECONDS, listener(new CopyOnWriteArrayList<>(), new AtomicLong()));
+		ReentrantLock fair = new ReentrantLock(true);
+		Lock lock = detector.wrap(fair, "fair");
+		List<String> order = new CopyOnWriteArrayList<>();
+
+		lock.lock();
+		Thread waiter = new Thread(() -> {
+			lock.lock();
+			order.add("waiter");
+			lock.unlock();
+		});
+		waiter.start();
+		awaitQueued(fair, 1);
+		Thread other = new Thread(() -> {
+			fair.lock();
+			order.add("other");
+			fair.unlock();
+		});
+		other.start();
+		awaitQueued(fair, 2);
+		// 超过 stall 阈值
+		Thread.sleep(50);
+		Assert.assertThat(detector.stalls(), Is.is(1L));
+		lock.unlock();
+
+		waiter.join();
+		other.join();
+		detector.close();
+
+		Assert.assertThat(order, Is.is(Arrays.asList("waiter", "other")));
+	}
+
+	private static void awaitQueued(ReentrantLock lock, int threads) throws InterruptedException {
+		while (lock.getQueueLength() < threads) {
+			Thread.sleep(1);
+		}
+	}
+
+
+	private static LockOrderDetector.Listener listener(List<List<String>> cycles, AtomicLong stalled) {
+		return new LockOrderDetector.Listener() {
+			@Override
+			public void cycle(List<String> cycle) {
+				cycles.add(cycle);
+			}
+
+			@Override
+			public void stall(String lock, long waitedNanos) {
+				logger.info(format("waited %s for %d microseconds", lock, NANOSECONDS.toMicros(waitedNanos)));
+				stalled.set(waitedNanos);
+			}
+		};
+	}
+
+	private static void lockInOrder(Lock first, Lock second) {
+		first.lock();
+		try {
+			second.lock();
+			second.unlock();
+		} finally {
+			first.unlock();
+		}
+	}
+
+	private static final int transfers = 100000;
+
+	private interface Acquire {
+		LockSet acquire();
+	}
+
+	private static LockSet tryLockAll(Lock... locks) {
+		try {
+			LockSet set = LockSet.tryLockAll(10, SECONDS, locks);
+			if (set == null) {
+				throw new IllegalStateException("timeout");
+			}
+			return set;
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void transferMany(Acquire acquire, int[] shared) {
+		for (int i = 0; i < transfers; i++) {
+			LockSet locks = acquire.acquire();
+			try {
+				shared[0]++;
+			} finally {
+				locks.unlock();
+			}
+		}
+	}
 }
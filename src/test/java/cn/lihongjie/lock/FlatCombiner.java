@@ -0,0 +1,135 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * 平面合并(flat combining), 把一个非线程安全的对象包装成线程安全的
+ * <p>
+ * SyncCounter 和 LockedShareVariableTest 里每个线程的每次 add 都要自己拿一次锁, 竞争激烈的时候时间都花在锁的交接上,
+ * 被保护的数据也在不同 CPU 的缓存之间来回传递.
+ * 这里每个线程把要做的操作放到自己的 slot 上, 抢到锁的线程(combiner)顺便把所有 slot 上的操作一起做完, 其它线程只在自己的 slot 上等结果.
+ * 一次加锁处理一批操作, 数据一直在 combiner 的缓存里
+ * <pre>
+ * FlatCombiner&lt;PriorityQueue&lt;Integer&gt;&gt; heap = new FlatCombiner&lt;&gt;(new PriorityQueue&lt;&gt;());
+ * heap.apply(q -&gt; q.offer(1));
+ * Integer min = heap.apply(PriorityQueue::poll);
+ * </pre>
+ * 操作在 combiner 线程里执行, 不能依赖 ThreadLocal, 也不能在操作里再调用同一个 FlatCombiner 的 apply(会死锁).
+ * 操作抛出的异常会在发起操作的线程里重新抛出
+ * <p>
+ * 每个线程的 slot 第一次使用的时候挂到链表上, 之后一直重复使用, 不会删除, 所以只适合线程数量有限的场景(比如线程池)
+ *
+ * @author 982264618@qq.com
+ */
+public class FlatCombiner<T> {
+
+	/**
+	 * newUpdater 只能传 FlatCombiner.class, 得到的是原始类型, 这里转一下
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static final AtomicIntegerFieldUpdater<FlatCombiner<?>> LOCKED =
+			(AtomicIntegerFieldUpdater) AtomicIntegerFieldUpdater.newUpdater(FlatCombiner.class, "locked");
+
+	private final T target;
+	private final AtomicReference<Slot<T>> slots = new AtomicReference<>();
+	private final ThreadLocal<Slot<T>> mySlot = ThreadLocal.withInitial(this::register);
+
+	private volatile int locked;
+
+	/**
+	 * 只有 combiner 会写
+	 */
+	private volatile long passes;
+	private volatile long combined;
+
+	public FlatCombiner(T target) {
+		this.target = target;
+	}
+
+	private Slot<T> register() {
+		Slot<T> slot = new Slot<>();
+		Slot<T> head;
+		do {
+			head = slots.get();
+			slot.next = head;
+		} while (!slots.compareAndSet(head, slot));
+		return slot;
+	}
+
+	/**
+	 * 执行操作, 返回操作的结果. 所有的操作互斥执行, 并且每个线程的操作按调用的顺序执行
+	 */
+	@SuppressWarnings("unchecked")
+	public <R> R apply(Function<? super T, ? extends R> op) {
+		Slot<T> slot = mySlot.get();
+		// volatile 写, 发布操作
+		slot.op = op;
+		for (int i = 0; ; i++) {
+			if (locked == 0 && LOCKED.compareAndSet(this, 0, 1)) {
+				try {
+					combine();
+				} finally {
+					locked = 0;
+				}
+			}
+			// combiner 先写结果再清空 op, 看到 op 为 null 的时候结果一定已经可见
+			if (slot.op == null) {
+				Object result = slot.result;
+				Throwable failure = slot.failure;
+				slot.result = null;
+				slot.failure = null;
+				if (failure instanceof Error) {
+					throw (Error) failure;
+				}
+				if (failure != null) {
+					throw (RuntimeException) failure;
+				}
+				return (R) result;
+			}
+			AbstractSpinLock.spin(i);
+		}
+	}
+
+	private void combine() {
+		int n = 0;
+		for (Slot<T> slot = slots.get(); slot != null; slot = slot.next) {
+			Function<? super T, ?> op = slot.op;
+			if (op == null) {
+				continue;
+			}
+			try {
+				slot.result = op.apply(target);
+			} catch (RuntimeException | Error e) {
+				slot.failure = e;
+			}
+			slot.op = null;
+			n++;
+		}
+		passes = passes + 1;
+		combined = combined + n;
+	}
+
+	/**
+	 * 加锁的次数
+	 */
+	public long passes() {
+		return passes;
+	}
+
+	/**
+	 * 平均每次加锁执行了多少个操作, 越大说明合并的效果越好
+	 */
+	public double averageBatch() {
+		long p = passes;
+		return p == 0 ? 0 : (double) combined / p;
+	}
+
+	private static final class Slot<T> {
+		volatile Function<? super T, ?> op;
+		Object result;
+		Throwable failure;
+		Slot<T> next;
+	}
+}
@@ -0,0 +1,115 @@
+package cn.lihongjie.lock;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 基于 Count-Min Sketch 的 top-K
+ * <p>
+ * 维护 k 个候选 key, 只有估计值超过当前候选里最小估计值的 key 才会去扫描候选, 并通过 CAS 替换掉最小的那个.
+ * 大部分 add 只是 sketch 上的 depth 次 getAndAdd 加一次 volatile 读.
+ * 热的 key 一般已经是候选, 它的估计值总是超过 threshold, 所以先只比较候选的 key, 已经在候选里就直接返回, 不去算其它候选的估计值
+ * <p>
+ * 候选的替换是近似的: 两个线程同时替换时, 被替换掉的可能不是严格意义上最小的那个
+ * <p>
+ * Long.MIN_VALUE 用来表示空的候选位置, 不能作为 key
+ *
+ * @author 982264618@qq.com
+ */
+public class HeavyHitters {
+
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private final CountMinSketch sketch;
+	private final AtomicLongArray candidates;
+
+	/**
+	 * 候选里最小的估计值, 没有满的时候为 0
+	 */
+	private volatile long threshold;
+
+	public HeavyHitters(int k, int depth, int width) {
+		this.sketch = new CountMinSketch(depth, width);
+		this.candidates = new AtomicLongArray(k);
+		for (int i = 0; i < k; i++) {
+			candidates.set(i, EMPTY);
+		}
+	}
+
+	public void add(long key, long count) {
+		sketch.add(key, count);
+		long estimate = sketch.estimate(key);
+		if (estimate <= threshold) {
+			return;
+		}
+		offer(key, estimate);
+	}
+
+	private void offer(long key, long estimate) {
+		for (int i = 0; i < candidates.length(); i++) {
+			if (candidates.get(i) == key) {
+				return;
+			}
+		}
+		int minIndex = -1;
+		long min = Long.MAX_VALUE;
+		long minKey = EMPTY;
+		for (int i = 0; i < candidates.length(); i++) {
+			long candidate = candidates.get(i);
+			if (candidate == key) {
+				return;
+			}
+			long e = candidate == EMPTY ? 0 : sketch.estimate(candidate);
+			if (e < min) {
+				min = e;
+				minIndex = i;
+				minKey = candidate;
+			}
+		}
+		if (min < estimate && candidates.compareAndSet(minIndex, minKey, key)) {
+			updateThreshold();
+		}
+	}
+
+	private void updateThreshold() {
+		long min = Long.MAX_VALUE;
+		for (int i = 0; i < candidates.length(); i++) {
+			long candidate = candidates.get(i);
+			min = Math.min(min, candidate == EMPTY ? 0 : sketch.estimate(candidate));
+		}
+		threshold = min;
+	}
+
+	public long estimate(long key) {
+		return sketch.estimate(key);
+	}
+
+	/**
+	 * 按估计值从大到小排序的候选 key, 并发替换可能让同一个 key 出现在两个位置, 这里去重
+	 */
+	public long[] top() {
+		long[][] entries = new long[candidates.length()][];
+		int n = 0;
+		for (int i = 0; i < candidates.length(); i++) {
+			long candidate = candidates.get(i);
+			boolean duplicate = candidate == EMPTY;
+			for (int j = 0; j < n && !duplicate; j++) {
+				duplicate = entries[j][0] == candidate;
+			}
+			if (!duplicate) {
+				// 先把估计值取出来, 排序的过程中估计值还会变
+				entries[n++] = new long[]{candidate, sketch.estimate(candidate)};
+			}
+		}
+		Arrays.sort(entries, 0, n, (a, b) -> Long.compare(b[1], a[1]));
+		long[] top = new long[n];
+		for (int i = 0; i < n; i++) {
+			top[i] = entries[i][0];
+		}
+		return top;
+	}
+
+	public CountMinSketch sketch() {
+		return sketch;
+	}
+}
@@ -0,0 +1,104 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * HyperLogLog, 用固定的内存估计不重复元素的数量
+ * <p>
+ * 2^precision 个寄存器, 每个元素的 hash 高 precision 位选择寄存器, 剩下的位里前导 0 的个数 + 1 和寄存器取最大值.
+ * 标准误差大约是 1.04 / sqrt(2^precision)
+ * <p>
+ * 每个寄存器一个字节, 8 个寄存器放在一个 long 里, 通过 CAS 更新; 寄存器只会变大, 所以大部分 add 只是一次读, 不需要写.
+ * 合并就是每个寄存器取最大值
+ *
+ * @author 982264618@qq.com
+ */
+public class HyperLogLog {
+
+	private final int precision;
+	private final int m;
+	private final AtomicLongArray registers;
+
+	public HyperLogLog(int precision) {
+		if (precision < 4 || precision > 18) {
+			throw new IllegalArgumentException("precision must be in [4, 18]: " + precision);
+		}
+		this.precision = precision;
+		this.m = 1 << precision;
+		this.registers = new AtomicLongArray(m / 8);
+	}
+
+	public void add(long item) {
+		long h = CountMinSketch.mix(item);
+		int index = (int) (h >>> (64 - precision));
+		// 低位补一个 1, 保证 rank 不会超过 64 - precision + 1
+		int rank = Long.numberOfLeadingZeros((h << precision) | (1L << (precision - 1))) + 1;
+		max(index, rank);
+	}
+
+	private int register(int index) {
+		return (int) (registers.get(index >>> 3) >>> ((index & 7) << 3)) & 0xFF;
+	}
+
+	private void max(int index, int rank) {
+		int word = index >>> 3;
+		int shift = (index & 7) << 3;
+		for (; ; ) {
+			long v = registers.get(word);
+			int current = (int) (v >>> shift) & 0xFF;
+			if (current >= rank) {
+				return;
+			}
+			long updated = (v & ~(0xFFL << shift)) | ((long) rank << shift);
+			if (registers.compareAndSet(word, v, updated)) {
+				return;
+			}
+		}
+	}
+
+	public long estimate() {
+		double sum = 0;
+		int zeros = 0;
+		for (int i = 0; i < m; i++) {
+			int r = register(i);
+			sum += 1.0 / (1L << r);
+			if (r == 0) {
+				zeros++;
+			}
+		}
+		double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+		double estimate = alpha * m * m / sum;
+		// 小基数的时候用线性计数修正
+		if (estimate <= 2.5 * m && zeros > 0) {
+			estimate = m * Math.log((double) m / zeros);
+		}
+		return Math.round(estimate);
+	}
+
+	/**
+	 * 合并另一个 HyperLogLog, 两者的 precision 必须一样
+	 */
+	public void merge(HyperLogLog other) {
+		if (other.precision != precision) {
+			throw new IllegalArgumentException("precision mismatch");
+		}
+		for (int i = 0; i < m; i++) {
+			int r = other.register(i);
+			if (r != 0) {
+				max(i, r);
+			}
+		}
+	}
+
+	public HyperLogLog snapshot() {
+		HyperLogLog copy = new HyperLogLog(precision);
+		for (int i = 0; i < registers.length(); i++) {
+			copy.registers.set(i, registers.get(i));
+		}
+		return copy;
+	}
+
+	public int precision() {
+		return precision;
+	}
+}
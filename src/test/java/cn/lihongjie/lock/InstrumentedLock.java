@@ -0,0 +1,393 @@
+package cn.lihongjie.lock;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 记录等待时间, 持有时间, 是否需要等待, 以及排队长度的 Lock 包装
+ * <p>
+ * 测试里的 Stopwatch 只能告诉我们整个测试花了多少时间, 分不清是锁的等待多还是临界区本身慢.
+ * 包装之后:
+ * 1. 先用 busy 看一眼锁的状态(不加锁), 不忙就是不需要等待, 直接调用调用者要的加锁方法, 等待时间记 0
+ * 2. 忙的话排队计数加一, 记下排在自己前面的线程数, 计时等到锁, 排队计数减一
+ * 3. 拿到锁的时候记下时间, 最外层 unlock 的时候记录持有时间
+ * <p>
+ * 包装不能改变锁本身的行为, 所以不能先 tryLock 再 lock(见 LockProbes), busy 偶尔会把需要等待的加锁记成不需要等待, 对统计来说够用了.
+ * ReentrantLock 和 ReentrantReadWriteLock 的读写锁(见 InstrumentedReadWriteLock)自带 busy, 别的锁要自己传
+ * <p>
+ * 没有等待的时候比直接加锁多了一次 busy, 两次 nanoTime, 两次直方图的记录, 以及一次 ThreadLocal(共享锁才有)或者字段读写.
+ * 直方图是 LogHistogram, 记录不分配内存; 独占锁的记录都在锁里面, 只有一个线程在写, 不需要原子加.
+ * 虚拟机上 nanoTime 一次可能要几十纳秒, 这时候可以用 holdSampleEvery 每 N 次才记录一次持有时间, 没抽中的加锁不调用 nanoTime,
+ * 加锁次数和等待时间仍然是每次都记录
+ * <p>
+ * shared 为 false 的时候, 持有时间记在字段里, 只有持有锁的线程会读写, 所以不需要同步; 共享锁(读锁)可以被多个线程同时持有, 记在 ThreadLocal 里
+ * <p>
+ * Condition.await 会完全释放锁, 等待期间别的线程会拿到锁并改写这些字段. 所以 newCondition 返回的条件变量也包装了一层:
+ * await 之前把这一段持有时间记下来, 清掉重入次数; 醒来重新拿到锁之后恢复重入次数, 重新开始计时
+ *
+ * @author 982264618@qq.com
+ */
+public class InstrumentedLock implements Lock {
+
+	private final Lock delegate;
+	private final boolean shared;
+	private final BooleanSupplier busy;
+
+	private final LogHistogram waitNanos = new LogHistogram();
+	private final LogHistogram holdNanos = new LogHistogram();
+	private final LogHistogram queueLength = new LogHistogram();
+	private final AtomicLong contended = new AtomicLong();
+	private final AtomicInteger waiting = new AtomicInteger();
+
+	/**
+	 * 这一次持有没有被抽中, 不记录持有时间
+	 */
+	private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+	private final int holdSampleEvery;
+
+	/**
+	 * 独占锁: 持有锁的线程的加锁时间, 重入次数和抽样计数
+	 */
+	private long acquiredAt;
+	private int depth;
+	private int tick;
+
+	/**
+	 * 共享锁: 每个线程自己的加锁时间, 重入次数和抽样计数
+	 */
+	private final ThreadLocal<long[]> sharedHold;
+
+	public InstrumentedLock(ReentrantLock delegate) {
+		this(delegate, 1);
+	}
+
+	/**
+	 * @param holdSampleEvery 每多少次加锁记录一次持有时间, 1 表示每次都记录
+	 */
+	public InstrumentedLock(ReentrantLock delegate, int holdSampleEvery) {
+		this(delegate, false, holdSampleEvery, LockProbes.busy(delegate));
+	}
+
+	/**
+	 * @param holdSampleEvery 每多少次加锁记录一次持有时间, 1 表示每次都记录
+	 * @param busy            当前线程加锁的话是不是要等待, 只能读锁的状态, 不能加锁
+	 */
+	public InstrumentedLock(Lock delegate, boolean shared, int holdSampleEvery, BooleanSupplier busy) {
+		if (holdSampleEvery < 1) {
+			throw new IllegalArgumentException("holdSampleEvery must be positive");
+		}
+		this.delegate = delegate;
+		this.shared = shared;
+		this.busy = busy;
+		this.holdSampleEvery = holdSampleEvery;
+		this.sharedHold = shared ? ThreadLocal.withInitial(() -> new long[3]) : null;
+	}
+
+	@Override
+	public void lock() {
+		if (!busy.getAsBoolean()) {
+			delegate.lock();
+			uncontended();
+			return;
+		}
+		long start = arrive();
+		try {
+			delegate.lock();
+		} finally {
+			waiting.decrementAndGet();
+		}
+		acquired(start);
+	}
+
+	@Override
+	public void lockInterruptibly() throws InterruptedException {
+		if (!busy.getAsBoolean()) {
+			delegate.lockInterruptibly();
+			uncontended();
+			return;
+		}
+		long start = arrive();
+		try {
+			delegate.lockInterruptibly();
+		} finally {
+			waiting.decrementAndGet();
+		}
+		acquired(start);
+	}
+
+	@Override
+	public boolean tryLock() {
+		if (delegate.tryLock()) {
+			uncontended();
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+		if (!busy.getAsBoolean()) {
+			if (delegate.tryLock(time, unit)) {
+				uncontended();
+				return true;
+			}
+			return false;
+		}
+		long start = arrive();
+		boolean locked;
+		try {
+			locked = delegate.tryLock(time, unit);
+		} finally {
+			waiting.decrementAndGet();
+		}
+		if (locked) {
+			acquired(start);
+		}
+		return locked;
+	}
+
+	/**
+	 * 只能由持有锁的线程调用, 否则重入次数会被改乱
+	 */
+	@Override
+	public void unlock() {
+		if (shared) {
+			delegate.unlock();
+			long[] hold = sharedHold.get();
+			if (--hold[1] == 0 && hold[0] != NOT_SAMPLED) {
+				holdNanos.record(System.nanoTime() - hold[0]);
+			}
+			return;
+		}
+		// 独占锁在释放之前记录, 这时候只有当前线程在写
+		if (--depth == 0 && acquiredAt != NOT_SAMPLED) {
+			holdNanos.recordSingleWriter(System.nanoTime() - acquiredAt);
+		}
+		delegate.unlock();
+	}
+
+	@Override
+	public Condition newCondition() {
+		return new InstrumentedCondition(delegate.newCondition());
+	}
+
+	/**
+	 * await 之前调用, 这时候还持有锁. 返回重入次数
+	 */
+	private int suspend() {
+		if (shared) {
+			long[] hold = sharedHold.get();
+			int saved = (int) hold[1];
+			if (hold[0] != NOT_SAMPLED) {
+				holdNanos.record(System.nanoTime() - hold[0]);
+			}
+			hold[1] = 0;
+			return saved;
+		}
+		int saved = depth;
+		if (acquiredAt != NOT_SAMPLED) {
+			holdNanos.recordSingleWriter(System.nanoTime() - acquiredAt);
+		}
+		depth = 0;
+		return saved;
+	}
+
+	/**
+	 * await 返回或者抛出异常之后调用, 这时候已经重新拿到了锁
+	 */
+	private void resume(int saved) {
+		if (shared) {
+			long[] hold = sharedHold.get();
+			hold[0] = sampled(++hold[2]) ? System.nanoTime() : NOT_SAMPLED;
+			hold[1] = saved;
+		} else {
+			acquiredAt = sampled(++tick) ? System.nanoTime() : NOT_SAMPLED;
+			depth = saved;
+		}
+	}
+
+	private long arrive() {
+		queueLength.record(waiting.getAndIncrement());
+		return System.nanoTime();
+	}
+
+	private void uncontended() {
+		recordWait(0);
+		hold(0);
+	}
+
+	private void acquired(long start) {
+		long now = System.nanoTime();
+		contended.incrementAndGet();
+		recordWait(now - start);
+		hold(now);
+	}
+
+	/**
+	 * 独占锁拿到锁之后才记录, 只有一个线程在写
+	 */
+	private void recordWait(long nanos) {
+		if (shared) {
+			waitNanos.record(nanos);
+		} else {
+			waitNanos.recordSingleWriter(nanos);
+		}
+	}
+
+	/**
+	 * 最外层的加锁按抽样决定要不要记录持有时间, now 为 0 表示还没有取过时间
+	 */
+	private void hold(long now) {
+		if (shared) {
+			long[] hold = sharedHold.get();
+			if (hold[1]++ == 0) {
+				hold[0] = sampled(++hold[2]) ? clock(now) : NOT_SAMPLED;
+			}
+		} else if (depth++ == 0) {
+			acquiredAt = sampled(++tick) ? clock(now) : NOT_SAMPLED;
+		}
+	}
+
+	private boolean sampled(long tick) {
+		return tick % holdSampleEvery == 0;
+	}
+
+	private static long clock(long now) {
+		return now != 0 ? now : System.nanoTime();
+	}
+
+	private final class InstrumentedCondition implements Condition {
+
+		private final Condition delegate;
+
+		InstrumentedCondition(Condition delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void await() throws InterruptedException {
+			int saved = suspend();
+			try {
+				delegate.await();
+			} finally {
+				resume(saved);
+			}
+		}
+
+		@Override
+		public void awaitUninterruptibly() {
+			int saved = suspend();
+			try {
+				delegate.awaitUninterruptibly();
+			} finally {
+				resume(saved);
+			}
+		}
+
+		@Override
+		public long awaitNanos(long nanosTimeout) throws InterruptedException {
+			int saved = suspend();
+			try {
+				return delegate.awaitNanos(nanosTimeout);
+			} finally {
+				resume(saved);
+			}
+		}
+
+		@Override
+		public boolean await(long time, TimeUnit unit) throws InterruptedException {
+			int saved = suspend();
+			try {
+				return delegate.await(time, unit);
+			} finally {
+				resume(saved);
+			}
+		}
+
+		@Override
+		public boolean awaitUntil(Date deadline) throws InterruptedException {
+			int saved = suspend();
+			try {
+				return delegate.awaitUntil(deadline);
+			} finally {
+				resume(saved);
+			}
+		}
+
+		@Override
+		public void signal() {
+			delegate.signal();
+		}
+
+		@Override
+		public void signalAll() {
+			delegate.signalAll();
+		}
+	}
+
+	public Snapshot snapshot() {
+		return new Snapshot(waitNanos.snapshot(), holdNanos.snapshot(), queueLength.snapshot(), contended.get());
+	}
+
+	public static final class Snapshot {
+
+		private final LogHistogram.Snapshot waitNanos;
+		private final LogHistogram.Snapshot holdNanos;
+		private final LogHistogram.Snapshot queueLength;
+		private final long contended;
+
+		Snapshot(LogHistogram.Snapshot waitNanos, LogHistogram.Snapshot holdNanos,
+				 LogHistogram.Snapshot queueLength, long contended) {
+			this.waitNanos = waitNanos;
+			this.holdNanos = holdNanos;
+			this.queueLength = queueLength;
+			this.contended = contended;
+		}
+
+		/**
+		 * 加锁成功的次数
+		 */
+		public long acquisitions() {
+			return waitNanos.count();
+		}
+
+		/**
+		 * 需要等待才拿到锁的次数
+		 */
+		public long contended() {
+			return contended;
+		}
+
+		public long uncontended() {
+			return acquisitions() - contended;
+		}
+
+		public LogHistogram.Snapshot waitNanos() {
+			return waitNanos;
+		}
+
+		public LogHistogram.Snapshot holdNanos() {
+			return holdNanos;
+		}
+
+		/**
+		 * 每次需要等待的时候, 前面已经在排队的线程数
+		 */
+		public LogHistogram.Snapshot queueLength() {
+			return queueLength;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("acquisitions=%d, contended=%d, wait [%s], hold [%s], queue [%s]",
+					acquisitions(), contended, waitNanos, holdNanos, queueLength);
+		}
+	}
+}
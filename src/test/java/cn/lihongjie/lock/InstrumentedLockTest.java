@@ -0,0 +1,324 @@
+package cn.lihongjie.lock;
+
+import org.hamcrest.core.Is;
+import org.junit.*;
+import org.junit.rules.Stopwatch;
+import org.junit.runner.Description;
+import org.nutz.log.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntSupplier;
+
+import static org.nutz.log.Logs.get;
+
+/**
+ * 锁的等待时间和持有时间, 以及包装本身的开销
+ *
+ * @author 982264618@qq.com
+ */
+public class InstrumentedLockTest {
+	private static Log logger = get();
+
+	private static final int count = 10000;
+	private static final int threadCount = 10;
+	private ExecutorService threadPool;
+
+
+	private static void logInfo(Description description, String status, long nanos) {
+		String testName = description.getMethodName();
+		logger.info(String.format("Test %s %s, spent %d microseconds",
+				testName, status, TimeUnit.NANOSECONDS.toMicros(nanos)));
+	}
+
+	@Rule
+	public Stopwatch stopwatch = new Stopwatch() {
+		@Override
+		protected void succeeded(long nanos, Description description) {
+			logInfo(description, "succeeded", nanos);
+		}
+
+		@Override
+		protected void failed(long nanos, Throwable e, Description description) {
+			logInfo(description, "failed", nanos);
+		}
+
+
+		@Override
+		protected void finished(long nanos, Description description) {
+//			logInfo(description, "finished", nanos);
+		}
+	};
+
+
+	@Before
+	public void setUp() throws Exception {
+		threadPool = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		threadPool.shutdownNow();
+	}
+
+
+	/**
+	 * 和 LockedShareVariableTest 一样的自加, 每次加锁都有记录
+	 * @throws Exception
+	 */
+	@Test
+	public void testInstrumentedReentrantLock() throws Exception {
+
+		InstrumentedLock lock = new InstrumentedLock(new ReentrantLock());
+		int[] shared = {0};
+
+		concurrentRun(() -> {
+			lock.lock();
+			try {
+				shared[0]++;
+			} finally {
+				lock.unlock();
+			}
+		});
+
+		InstrumentedLock.Snapshot snapshot = lock.snapshot();
+		logger.info(snapshot);
+		Assert.assertThat(shared[0], Is.is(count));
+		Assert.assertThat(snapshot.acquisitions(), Is.is((long) count));
+		Assert.assertThat(snapshot.holdNanos().count(), Is.is((long) count));
+		Assert.assertThat(snapshot.queueLength().count(), Is.is(snapshot.contended()));
+	}
+
+
+	/**
+	 * RRCounter 读多写少, 读锁和写锁分开统计
+	 * @throws Exception
+	 */
+	@Test
+	public void testInstrumentedRRCounter() throws Exception {
+
+		InstrumentedReadWriteLock lock = new InstrumentedReadWriteLock(new ReentrantReadWriteLock());
+		Counter counter = new RRCounter(0, lock);
+		AtomicInteger ops = new AtomicInteger();
+
+		concurrentRun(() -> {
+			if (ops.getAndIncrement() % 10 == 0) {
+				counter.add(1);
+			} else {
+				counter.get();
+			}
+		});
+
+		InstrumentedLock.Snapshot read = lock.readLock().snapshot();
+		InstrumentedLock.Snapshot write = lock.writeLock().snapshot();
+		logger.info(String.format("read: %s", read));
+		logger.info(String.format("write: %s", write));
+		Assert.assertThat(write.acquisitions(), Is.is((long) count / 10));
+		Assert.assertThat(read.acquisitions() + write.acquisitions(), Is.is((long) count));
+		Assert.assertThat(counter.get(), Is.is(count / 10));
+	}
+
+
+	/**
+	 * 没有竞争的时候, 包装带来的额外开销
+	 * @throws Exception
+	 */
+	@Test
+	public void testUncontendedOverhead() throws Exception {
+
+		int iterations = 1000000;
+		Lock raw = new ReentrantLock();
+		InstrumentedLock instrumented = new InstrumentedLock(new ReentrantLock());
+		InstrumentedLock sampled = new InstrumentedLock(new ReentrantLock(), 64);
+
+		// 预热
+		lockMany(raw, iterations);
+		lockMany(instrumented, iterations);
+
+		lockMany(sampled, iterations);
+
+		long rawNanos = lockMany(raw, iterations);
+		long instrumentedNanos = lockMany(instrumented, iterations);
+		long sampledNanos = lockMany(sampled, iterations);
+
+		logger.info(String.format("raw %.1f ns/op, instrumented %.1f ns/op, sampled 1/64 %.1f ns/op",
+				(double) rawNanos / iterations, (double) instrumentedNanos / iterations,
+				(double) sampledNanos / iterations));
+		// 两次 nanoTime 加两次记录, 就算虚拟机上 nanoTime 很慢, 每次加解锁也不应该多出 1 微秒; 抽样之后不会比每次都记录慢很多
+		Assert.assertTrue((instrumentedNanos - rawNanos) / iterations < 1000);
+		Assert.assertTrue(sampledNanos < instrumentedNanos * 2);
+		InstrumentedLock.Snapshot snapshot = instrumented.snapshot();
+		Assert.assertThat(snapshot.acquisitions(), Is.is(2L * iterations));
+		Assert.assertThat(snapshot.contended(), Is.is(0L));
+		Assert.assertThat(sampled.snapshot().acquisitions(), Is.is(2L * iterations));
+		Assert.assertThat(sampled.snapshot().holdNanos().count(), Is.is(2L * iterations / 64));
+	}
+
+
+	/**
+	 * await 期间锁被别的线程拿走, 醒来之后重入次数和计时要恢复, 持有时间按 await 分成两段记录
+	 * @throws Exception
+	 */
+	@Test
+	public void testConditionAwait() throws Exception {
+
+		InstrumentedLock lock = new InstrumentedLock(new ReentrantLock());
+		Condition ready = lock.newCondition();
+		boolean[] signalled = {false};
+		CountDownLatch awaiting = new CountDownLatch(1);
+
+		Future<?> waiter = threadPool.submit(() -> {
+			lock.lock();
+			lock.lock();
+			try {
+				awaiting.countDown();
+				while (!signalled[0]) {
+					ready.awaitUninterruptibly();
+				}
+			} finally {
+				lock.unlock();
+				lock.unlock();
+			}
+			return null;
+		});
+
+		awaiting.await();
+		lock.lock();
+		try {
+			signalled[0] = true;
+			ready.signal();
+		} finally {
+			lock.unlock();
+		}
+
+		waiter.get();
+
+		InstrumentedLock.Snapshot snapshot = lock.snapshot();
+		logger.info(snapshot);
+		// await 前一段, 醒来后一段, main 一段
+		Assert.assertThat(snapshot.holdNanos().count(), Is.is(3L));
+		Assert.assertThat(snapshot.acquisitions(), Is.is(3L));
+	}
+
+
+	/**
+	 * 公平锁上包装之后也要排队, 不能在等待的线程前面插队
+	 * @throws Exception
+	 */
+	@Test
+	public void testFairLockNotBarged() throws Exception {
+
+		ReentrantLock fair = new ReentrantLock(true);
+		InstrumentedLock lock = new InstrumentedLock(fair);
+		boolean[] waiterRan = {false};
+
+		lock.lock();
+		Future<?> waiter = threadPool.submit(() -> {
+			lock.lock();
+			try {
+				waiterRan[0] = true;
+			} finally {
+				lock.unlock();
+			}
+		});
+		awaitQueueLength(fair::getQueueLength, 1);
+		lock.unlock();
+
+		lock.lock();
+		try {
+			Assert.assertTrue(waiterRan[0]);
+		} finally {
+			lock.unlock();
+		}
+		waiter.get();
+		// waiter 一定要等, main 第二次加锁的时候 waiter 可能已经做完了
+		Assert.assertTrue(lock.snapshot().contended() >= 1);
+	}
+
+
+	/**
+	 * 有写线程在排队的时候, 新的读线程要排在它后面, 不然读多的时候写线程会饿死
+	 * @throws Exception
+	 */
+	@Test
+	public void testReadLockNotBargingQueuedWriter() throws Exception {
+
+		ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+		InstrumentedReadWriteLock lock = new InstrumentedReadWriteLock(rw);
+
+		lock.readLock().lock();
+		Future<?> writer = threadPool.submit(() -> {
+			lock.writeLock().lock();
+			lock.writeLock().unlock();
+		});
+		awaitQueueLength(rw::getQueueLength, 1);
+		Future<?> reader = threadPool.submit(() -> {
+			lock.readLock().lock();
+			lock.readLock().unlock();
+		});
+		awaitQueueLength(rw::getQueueLength, 2);
+		Assert.assertFalse(reader.isDone());
+		lock.readLock().unlock();
+
+		writer.get();
+		reader.get();
+		Assert.assertThat(lock.writeLock().snapshot().contended(), Is.is(1L));
+		Assert.assertThat(lock.readLock().snapshot().contended(), Is.is(1L));
+	}
+
+
+	private static void awaitQueueLength(IntSupplier queueLength, int expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (queueLength.getAsInt() < expected) {
+			if (System.nanoTime() - deadline >= 0) {
+				Assert.fail("queue length " + queueLength.getAsInt() + ", expected " + expected);
+			}
+			Thread.sleep(1);
+		}
+	}
+
+	private static long lockMany(Lock lock, int iterations) {
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			lock.lock();
+			lock.unlock();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private void concurrentRun(Runnable task) throws InterruptedException {
+
+		CountDownLatch latch = new CountDownLatch(threadCount);
+		int each = count / threadCount;
+		for (int i = 0; i < threadCount; i++) {
+
+
+			threadPool.submit(() -> {
+
+
+				for (int j = 0; j < each; j++) {
+
+					task.run();
+
+
+				}
+
+				latch.countDown();
+
+			});
+
+
+		}
+
+
+		latch.await();
+	}
+}
@@ -0,0 +1,41 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 读锁和写锁分别用 InstrumentedLock 包装, 分别统计
+ * <p>
+ * ReentrantReadWriteLock 的读锁和写锁拿不到外面的锁, 所以 busy 在这里用外面的锁的状态来判断(见 LockProbes)
+ *
+ * @author 982264618@qq.com
+ */
+public class InstrumentedReadWriteLock implements ReadWriteLock {
+
+	private final InstrumentedLock readLock;
+	private final InstrumentedLock writeLock;
+
+	public InstrumentedReadWriteLock(ReentrantReadWriteLock delegate) {
+		this(delegate, LockProbes.readBusy(delegate), LockProbes.writeBusy(delegate));
+	}
+
+	/**
+	 * @param readBusy  当前线程加读锁的话是不是要等待, 只能读锁的状态, 不能加锁
+	 * @param writeBusy 当前线程加写锁的话是不是要等待
+	 */
+	public InstrumentedReadWriteLock(ReadWriteLock delegate, BooleanSupplier readBusy, BooleanSupplier writeBusy) {
+		this.readLock = new InstrumentedLock(delegate.readLock(), true, 1, readBusy);
+		this.writeLock = new InstrumentedLock(delegate.writeLock(), false, 1, writeBusy);
+	}
+
+	@Override
+	public InstrumentedLock readLock() {
+		return readLock;
+	}
+
+	@Override
+	public InstrumentedLock writeLock() {
+		return writeLock;
+	}
+}
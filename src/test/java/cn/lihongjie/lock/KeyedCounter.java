@@ -0,0 +1,24 @@
+package cn.lihongjie.lock;
+
+/**
+ * 按 key 计数, key 是基本类型, 避免 ConcurrentHashMap<Long, AtomicLong> 的装箱
+ *
+ * @author 982264618@qq.com
+ */
+public interface KeyedCounter {
+
+	long get(long key);
+
+	void add(long key, long delta);
+
+	/**
+	 * 遍历一个弱一致的快照, 和 ConcurrentHashMap 的迭代器一样, 不会抛出 ConcurrentModificationException
+	 */
+	void forEach(Visitor visitor);
+
+	int size();
+
+	interface Visitor {
+		void visit(long key, long count);
+	}
+}
@@ -0,0 +1,152 @@
+package cn.lihongjie.lock;
+
+import org.hamcrest.core.Is;
+import org.junit.*;
+import org.junit.rules.Stopwatch;
+import org.junit.runner.Description;
+import org.nutz.log.Log;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.nutz.log.Logs.get;
+
+/**
+ * 按 key 计数, 对比装箱的 ConcurrentHashMap<Long, AtomicLong>
+ *
+ * @author 982264618@qq.com
+ */
+public class KeyedCounterTest {
+	private static Log logger = get();
+
+	private static final int keyCount = 10000;
+	private static final int threadCount = 10;
+	private ExecutorService threadPool;
+
+
+	private static void logInfo(Description description, String status, long nanos) {
+		String testName = description.getMethodName();
+		logger.info(String.format("Test %s %s, spent %d microseconds",
+				testName, status, TimeUnit.NANOSECONDS.toMicros(nanos)));
+	}
+
+	@Rule
+	public Stopwatch stopwatch = new Stopwatch() {
+		@Override
+		protected void succeeded(long nanos, Description description) {
+			logInfo(description, "succeeded", nanos);
+		}
+
+		@Override
+		protected void failed(long nanos, Throwable e, Description description) {
+			logInfo(description, "failed", nanos);
+		}
+
+
+		@Override
+		protected void finished(long nanos, Description description) {
+//			logInfo(description, "finished", nanos);
+		}
+	};
+
+
+	@Before
+	public void setUp() throws Exception {
+		threadPool = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		threadPool.shutdownNow();
+	}
+
+
+	/**
+	 * 从很小的容量开始, 写的过程中会多次扩容
+	 * @throws Exception
+	 */
+	@Test
+	public void testOpenHashKeyedCounterConcurrent() throws Exception {
+
+		OpenHashKeyedCounter counter = new OpenHashKeyedCounter(4);
+
+		concurrentAdd(counter::add);
+
+		for (int key = 0; key < keyCount; key++) {
+			Assert.assertThat(counter.get(key * 31L - keyCount), Is.is((long) threadCount));
+		}
+		Assert.assertThat(counter.size(), Is.is(keyCount));
+
+		long[] total = {0};
+		counter.forEach((key, count) -> total[0] += count);
+		Assert.assertThat(total[0], Is.is((long) keyCount * threadCount));
+		logger.info(String.format("capacity %d", counter.capacity()));
+	}
+
+
+	@Test
+	public void testConcurrentHashMapConcurrent() throws Exception {
+
+		ConcurrentHashMap<Long, AtomicLong> map = new ConcurrentHashMap<>();
+
+		concurrentAdd((key, delta) -> map.computeIfAbsent(key, k -> new AtomicLong()).addAndGet(delta));
+
+		Assert.assertThat(map.size(), Is.is(keyCount));
+	}
+
+
+	@Test
+	public void testMissingKey() throws Exception {
+
+		OpenHashKeyedCounter counter = new OpenHashKeyedCounter();
+
+		counter.add(0, 3);
+		counter.add(-1, 2);
+
+		Assert.assertThat(counter.get(0), Is.is(3L));
+		Assert.assertThat(counter.get(-1), Is.is(2L));
+		Assert.assertThat(counter.get(1), Is.is(0L));
+		Assert.assertThat(counter.size(), Is.is(2));
+	}
+
+
+	private interface Adder {
+		void add(long key, long delta);
+	}
+
+	/**
+	 * 每个线程把所有的 key 各加 1, 每个线程的起点不同
+	 */
+	private void concurrentAdd(Adder adder) throws InterruptedException {
+
+		CountDownLatch latch = new CountDownLatch(threadCount);
+		for (int i = 0; i < threadCount; i++) {
+
+
+			int offset = i * (keyCount / threadCount);
+			threadPool.submit(() -> {
+
+
+				for (int j = 0; j < keyCount; j++) {
+
+					int key = (j + offset) % keyCount;
+					adder.add(key * 31L - keyCount, 1);
+
+
+				}
+
+				latch.countDown();
+
+			});
+
+
+		}
+
+
+		latch.await();
+	}
+}
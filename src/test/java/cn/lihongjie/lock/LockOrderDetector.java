@@ -0,0 +1,365 @@
+package cn.lihongjie.lock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 运行时的加锁顺序检查和等待时间过长的报警
+ * <p>
+ * DeadLockTest.testDeadLock 的死锁要两个线程刚好交错才会发生, 平时测试很难碰到, 出了问题只能看线程 dump.
+ * 这里把锁包装一下, 记录每个线程已经持有哪些锁, 线程持有 A 的时候去拿 B, 就在全局的图上加一条 A -&gt; B 的边.
+ * 新加的边如果形成了环, 说明存在两个线程以相反顺序加锁的可能, 不需要真的死锁就能报告出来
+ * <p>
+ * 包装之后调用的仍然是调用者要的加锁方法, 不会先 tryLock 插队, 也不会为了计时放弃排队的位置, 锁的公平性和顺序不变.
+ * <p>
+ * 开销:
+ * 1. 按路径抽样: 线程在不持有任何锁的时候加锁, 以 1/sampleEvery 的概率决定这一整段(直到锁全部释放)要不要记录.
+ * 抽中的路径才维护持有的锁(ThreadLocal 里的数组, 不分配内存)和检查边, 边已经存在的时候只是一次 contains, 只有新的边才会在图上搜索环.
+ * 没抽中的时候每次加锁解锁只是一次 ThreadLocal 和一个计数. 抽样是随机的, 不会和固定的加锁规律对上
+ * 2. 每次加锁前后各有一次 lazySet, 告诉后台线程当前线程在等哪个锁. 后台线程每 stallThreshold / 2 扫描一次,
+ * 两次扫描之间同一次等待超过 stallThreshold 就报告 stall. 所以 stall 是在还没拿到锁的时候报告的, 真的死锁了也能报告出来,
+ * 报告的等待时间是后台线程看到的, 比实际的短一点. stall 在后台线程里回调
+ * <p>
+ * 图上的边是弱引用, 每个对象一个锁的时候, 不再使用的锁可以被回收. 用完之后 close 停掉后台线程
+ * <p>
+ * Condition.await 期间锁被释放了, 但是仍然算在持有的锁里面
+ *
+ * @author 982264618@qq.com
+ */
+public class LockOrderDetector implements AutoCloseable {
+
+	public interface Listener {
+
+		/**
+		 * 加锁顺序形成了环, cycle 是环上的锁名, 第一个和最后一个相同
+		 */
+		void cycle(List<String> cycle);
+
+		/**
+		 * 等待 lock 的时间超过了阈值, 这时候还没有拿到锁, waitedNanos 是已经等待的时间
+		 */
+		void stall(String lock, long waitedNanos);
+	}
+
+	private final int sampleEvery;
+	private final long stallThresholdNanos;
+	private final Listener listener;
+	private final Set<Held> threads = ConcurrentHashMap.newKeySet();
+	private final ThreadLocal<Held> held = ThreadLocal.withInitial(this::register);
+	private final Thread watchdog;
+	private volatile boolean closed;
+
+	private final AtomicLong cycles = new AtomicLong();
+	private final AtomicLong stalls = new AtomicLong();
+
+	public LockOrderDetector(int sampleEvery, long stallThreshold, TimeUnit unit, Listener listener) {
+		if (sampleEvery < 1) {
+			throw new IllegalArgumentException("sampleEvery must be positive");
+		}
+		if (stallThreshold <= 0) {
+			throw new IllegalArgumentException("stallThreshold must be positive");
+		}
+		this.sampleEvery = sampleEvery;
+		this.stallThresholdNanos = unit.toNanos(stallThreshold);
+		this.listener = listener;
+		watchdog = new Thread(this::watch, "lock-order-detector");
+		watchdog.setDaemon(true);
+		watchdog.start();
+	}
+
+	public Lock wrap(Lock lock, String name) {
+		return new DetectedLock(lock, name);
+	}
+
+	public long cycles() {
+		return cycles.get();
+	}
+
+	public long stalls() {
+		return stalls.get();
+	}
+
+	/**
+	 * 停掉后台线程, 之后不再报告 stall, 加锁顺序的检查不受影响
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(watchdog);
+	}
+
+	private Held register() {
+		Held h = new Held(Thread.currentThread());
+		threads.add(h);
+		return h;
+	}
+
+	/**
+	 * 开始等 lock, seq 区分同一个线程先后对同一个锁的两次等待
+	 */
+	private Held waiting(DetectedLock lock) {
+		Held h = held.get();
+		h.seq++;
+		h.waitingFor.lazySet(lock);
+		return h;
+	}
+
+	private void acquired(Held h, DetectedLock lock) {
+		if (h.depth++ == 0) {
+			h.tracking = sampleEvery == 1 || ThreadLocalRandom.current().nextInt(sampleEvery) == 0;
+		}
+		if (h.tracking) {
+			for (int i = 0; i < h.size; i++) {
+				addEdge(h.stack[i], lock);
+			}
+			h.push(lock);
+		}
+	}
+
+	private void released(DetectedLock lock) {
+		Held h = held.get();
+		if (h.tracking) {
+			h.remove(lock);
+		}
+		if (--h.depth == 0) {
+			h.tracking = false;
+		}
+	}
+
+	private void addEdge(DetectedLock from, DetectedLock to) {
+		if (from == to || !from.addSuccessor(to)) {
+			return;
+		}
+		// 新的边 from -> to, 如果 to 能走到 from 就形成了环
+		List<DetectedLock> path = path(to, from);
+		if (path != null) {
+			cycles.incrementAndGet();
+			List<String> names = new ArrayList<>(path.size() + 1);
+			names.add(from.name);
+			for (DetectedLock lock : path) {
+				names.add(lock.name);
+			}
+			listener.cycle(Collections.unmodifiableList(names));
+		}
+	}
+
+	/**
+	 * 广度优先搜索 from 到 to 的路径, 包括两端, 没有返回 null
+	 */
+	private static List<DetectedLock> path(DetectedLock from, DetectedLock to) {
+		ArrayDeque<List<DetectedLock>> queue = new ArrayDeque<>();
+		Set<DetectedLock> visited = new HashSet<>();
+		queue.add(Collections.singletonList(from));
+		visited.add(from);
+		while (!queue.isEmpty()) {
+			List<DetectedLock> path = queue.poll();
+			DetectedLock last = path.get(path.size() - 1);
+			if (last == to) {
+				return path;
+			}
+			for (DetectedLock next : last.successors()) {
+				if (visited.add(next)) {
+					List<DetectedLock> longer = new ArrayList<>(path);
+					longer.add(next);
+					queue.add(longer);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 后台线程: 两次扫描之间还在等同一个锁(锁和 seq 都没变)就累计时间, 超过阈值报告一次. 线程结束之后把它去掉
+	 */
+	private void watch() {
+		long interval = Math.max(stallThresholdNanos / 2, TimeUnit.MILLISECONDS.toNanos(1));
+		while (!closed) {
+			LockSupport.parkNanos(this, interval);
+			long now = System.nanoTime();
+			for (Iterator<Held> it = threads.iterator(); it.hasNext(); ) {
+				Held h = it.next();
+				DetectedLock lock = h.waitingFor.get();
+				if (lock == null) {
+					h.seenLock = null;
+					if (!h.thread.isAlive()) {
+						it.remove();
+					}
+					continue;
+				}
+				int seq = h.seq;
+				if (lock != h.seenLock || seq != h.seenSeq) {
+					h.seenLock = lock;
+					h.seenSeq = seq;
+					h.seenAt = now;
+					h.reported = false;
+				} else if (!h.reported && now - h.seenAt >= stallThresholdNanos) {
+					h.reported = true;
+					stalls.incrementAndGet();
+					try {
+						listener.stall(lock.name, now - h.seenAt);
+					} catch (RuntimeException e) {
+						// listener 出错不能让后台线程退出
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 一个线程持有的锁和正在等的锁
+	 */
+	private static final class Held {
+
+		final Thread thread;
+
+		/**
+		 * 只有自己的线程读写: 持有的锁的个数(包括没有记录的), 这一段路径是否被抽中, 抽中之后按加锁的顺序记录的锁
+		 */
+		int depth;
+		boolean tracking;
+		DetectedLock[] stack = new DetectedLock[8];
+		int size;
+
+		/**
+		 * 自己的线程写, 后台线程读. seq 在 lazySet 之前写, 后台线程先读 waitingFor 再读 seq
+		 */
+		final AtomicReference<DetectedLock> waitingFor = new AtomicReference<>();
+		int seq;
+
+		/**
+		 * 只有后台线程读写
+		 */
+		DetectedLock seenLock;
+		int seenSeq;
+		long seenAt;
+		boolean reported;
+
+		Held(Thread thread) {
+			this.thread = thread;
+		}
+
+		void push(DetectedLock lock) {
+			if (size == stack.length) {
+				stack = Arrays.copyOf(stack, size * 2);
+			}
+			stack[size++] = lock;
+		}
+
+		/**
+		 * 一般是最后加的锁最先释放, 所以从后往前找
+		 */
+		void remove(DetectedLock lock) {
+			for (int i = size - 1; i >= 0; i--) {
+				if (stack[i] == lock) {
+					System.arraycopy(stack, i + 1, stack, i, size - i - 1);
+					stack[--size] = null;
+					return;
+				}
+			}
+		}
+	}
+
+	private final class DetectedLock implements Lock {
+
+		private final Lock delegate;
+		private final String name;
+		/**
+		 * 弱引用, 只有抽中的路径才会读写, 用 synchronized 就够了
+		 */
+		private final Set<DetectedLock> successors = Collections.newSetFromMap(new WeakHashMap<>());
+
+		DetectedLock(Lock delegate, String name) {
+			this.delegate = delegate;
+			this.name = name;
+		}
+
+		boolean addSuccessor(DetectedLock lock) {
+			synchronized (successors) {
+				return successors.add(lock);
+			}
+		}
+
+		List<DetectedLock> successors() {
+			synchronized (successors) {
+				return new ArrayList<>(successors);
+			}
+		}
+
+		@Override
+		public void lock() {
+			Held h = waiting(this);
+			try {
+				delegate.lock();
+			} finally {
+				h.waitingFor.lazySet(null);
+			}
+			acquired(h, this);
+		}
+
+		@Override
+		public void lockInterruptibly() throws InterruptedException {
+			Held h = waiting(this);
+			try {
+				delegate.lockInterruptibly();
+			} finally {
+				h.waitingFor.lazySet(null);
+			}
+			acquired(h, this);
+		}
+
+		@Override
+		public boolean tryLock() {
+			if (delegate.tryLock()) {
+				acquired(held.get(), this);
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+			Held h = waiting(this);
+			boolean locked;
+			try {
+				locked = delegate.tryLock(time, unit);
+			} finally {
+				h.waitingFor.lazySet(null);
+			}
+			if (locked) {
+				acquired(h, this);
+			}
+			return locked;
+		}
+
+		@Override
+		public void unlock() {
+			delegate.unlock();
+			released(this);
+		}
+
+		@Override
+		public Condition newCondition() {
+			return delegate.newCondition();
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+}
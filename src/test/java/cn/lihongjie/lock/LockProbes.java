@@ -0,0 +1,43 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 不加锁, 只看锁的状态, 判断当前线程加锁的话是不是要等待
+ * <p>
+ * 包装锁(InstrumentedLock, StripedLock)要统计等待次数, 但是不能用先 tryLock 再 lock 的办法:
+ * 公平锁的 tryLock 会插队, 读写锁的读锁 tryLock 不管排队的写线程, 读多的时候写线程会饿死.
+ * 这里的判断和真正加锁之间有竞争, 偶尔会判断错, 只能用来统计
+ *
+ * @author 982264618@qq.com
+ */
+final class LockProbes {
+
+	private LockProbes() {
+	}
+
+	/**
+	 * 别的线程持有锁, 或者有线程在排队. 已经持有锁的线程重入不算
+	 */
+	static BooleanSupplier busy(ReentrantLock lock) {
+		return () -> !lock.isHeldByCurrentThread() && (lock.isLocked() || lock.hasQueuedThreads());
+	}
+
+	/**
+	 * 别的线程持有写锁, 或者有线程在排队(非公平锁只有排在最前面的是写线程才等, 这里不区分). 已经持有读锁或者写锁的线程不算
+	 */
+	static BooleanSupplier readBusy(ReentrantReadWriteLock lock) {
+		return () -> !lock.isWriteLockedByCurrentThread()
+				&& (lock.isWriteLocked() || lock.hasQueuedThreads()) && lock.getReadHoldCount() == 0;
+	}
+
+	/**
+	 * 别的线程持有读锁或者写锁, 或者有线程在排队. 已经持有写锁的线程重入不算
+	 */
+	static BooleanSupplier writeBusy(ReentrantReadWriteLock lock) {
+		return () -> !lock.isWriteLockedByCurrentThread()
+				&& (lock.isWriteLocked() || lock.getReadLockCount() > 0 || lock.hasQueuedThreads());
+	}
+}
@@ -0,0 +1,156 @@
+package cn.lihongjie.lock;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 同时持有的一组锁, 一次 unlock 全部释放
+ * <p>
+ * DeadLockTest 里说的两种解决死锁的办法:
+ * 1. lockAll: 所有线程按同一个全局顺序加锁. 任意的锁对象没有天然的顺序, 这里按 System.identityHashCode 排序,
+ * 两个不同的锁 hash 相同的时候(很少见)先拿一个全局的 tie 锁, 保证这种情况下也只有一个线程在按不确定的顺序加锁
+ * 2. tryLockAll: 按调用者给的顺序 tryLock, 有一个拿不到就把已经拿到的全部释放, 随机退避一段时间再重试, 退避时间指数增长.
+ * 随机是为了避免两个线程每次都同时重试, 形成活锁(见 LiveLockTest)
+ * <pre>
+ * LockSet locks = LockSet.lockAll(from, to);
+ * try {
+ *     transfer(from, to);
+ * } finally {
+ *     locks.unlock();
+ * }
+ * </pre>
+ * 同一个锁传入多次只加锁一次. 一个 LockSet 只能由加锁的线程释放, 重复 unlock 没有效果
+ *
+ * @author 982264618@qq.com
+ */
+public final class LockSet implements AutoCloseable {
+
+	private static final Lock TIE = new ReentrantLock();
+
+	private static final long MIN_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+	private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private static final Comparator<Lock> ORDER = Comparator.comparingInt(System::identityHashCode);
+
+	/**
+	 * 按加锁的顺序排列, 释放的时候倒过来
+	 */
+	private final Lock[] locks;
+	private int held;
+
+	private LockSet(Lock[] locks) {
+		this.locks = locks;
+	}
+
+	/**
+	 * 按全局顺序加锁, 一直等到全部拿到
+	 */
+	public static LockSet lockAll(Lock... locks) {
+		Lock[] sorted = distinct(locks, true);
+		boolean tie = false;
+		for (int i = 1; i < sorted.length; i++) {
+			tie |= System.identityHashCode(sorted[i]) == System.identityHashCode(sorted[i - 1]);
+		}
+		if (tie) {
+			TIE.lock();
+		}
+		LockSet set = new LockSet(sorted);
+		try {
+			for (Lock lock : sorted) {
+				lock.lock();
+				set.held++;
+			}
+		} catch (RuntimeException | Error e) {
+			set.unlock();
+			throw e;
+		} finally {
+			if (tie) {
+				TIE.unlock();
+			}
+		}
+		return set;
+	}
+
+	public static LockSet lockAll(Collection<? extends Lock> locks) {
+		return lockAll(locks.toArray(new Lock[0]));
+	}
+
+	/**
+	 * 在 timeout 之内拿到所有的锁, 拿不到返回 null, 这时候一个锁也没有持有
+	 */
+	public static LockSet tryLockAll(long timeout, TimeUnit unit, Lock... locks) throws InterruptedException {
+		LockSet set = new LockSet(distinct(locks, false));
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		long backoff = MIN_BACKOFF_NANOS;
+		for (; ; ) {
+			if (set.tryLockOnce()) {
+				return set;
+			}
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return null;
+			}
+			LockSupport.parkNanos(Math.min(remaining, ThreadLocalRandom.current().nextLong(backoff) + 1));
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+		}
+	}
+
+	public static LockSet tryLockAll(long timeout, TimeUnit unit, Collection<? extends Lock> locks) throws InterruptedException {
+		return tryLockAll(timeout, unit, locks.toArray(new Lock[0]));
+	}
+
+	private boolean tryLockOnce() {
+		for (Lock lock : locks) {
+			if (!lock.tryLock()) {
+				unlock();
+				return false;
+			}
+			held++;
+		}
+		return true;
+	}
+
+	/**
+	 * 去掉重复的锁, 需要的话按全局顺序排序
+	 */
+	private static Lock[] distinct(Lock[] locks, boolean sort) {
+		Lock[] copy = locks.clone();
+		if (sort) {
+			Arrays.sort(copy, ORDER);
+		}
+		int n = 0;
+		for (Lock lock : copy) {
+			boolean duplicate = false;
+			for (int i = 0; i < n && !duplicate; i++) {
+				duplicate = copy[i] == lock;
+			}
+			if (!duplicate) {
+				copy[n++] = lock;
+			}
+		}
+		return Arrays.copyOf(copy, n);
+	}
+
+	/**
+	 * 倒序释放已经拿到的锁
+	 */
+	public void unlock() {
+		while (held > 0) {
+			locks[--held].unlock();
+		}
+	}
+
+	@Override
+	public void close() {
+		unlock();
+	}
+}
@@ -3,12 +3,19 @@ package cn.lihongjie.lock;
 import org.hamcrest.core.Is;
 import org.junit.After;
 import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.Stopwatch;
+import org.junit.runner.Description;
 import org.nutz.log.Log;
 
+import java.util.PriorityQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -21,6 +28,31 @@ public class LockedShareVariableTest {
 
 	private static Log logger = get();
 
+	private static void logInfo(Description description, String status, long nanos) {
+		String testName = description.getMethodName();
+		logger.info(String.format("Test %s %s, spent %d microseconds",
+				testName, status, TimeUnit.NANOSECONDS.toMicros(nanos)));
+	}
+
+	@Rule
+	public Stopwatch stopwatch = new Stopwatch() {
+		@Override
+		protected void succeeded(long nanos, Description description) {
+			logInfo(description, "succeeded", nanos);
+		}
+
+		@Override
+		protected void failed(long nanos, Throwable e, Description description) {
+			logInfo(description, "failed", nanos);
+		}
+
+
+		@Override
+		protected void finished(long nanos, Description description) {
+//			logInfo(description, "finished", nanos);
+		}
+	};
+
 	private int shared = 0;
 	private final int count = 1000; // 自加次数
 
@@ -82,6 +114,256 @@ public class LockedShareVariableTest {
 
 	}
 
+	@Test
+	public void multiThreadAddWithTASLock() throws Exception {
+
+		lock = new TASLock();
+
+		multiThreadAddWithLock();
+	}
+
+
+	@Test
+	public void multiThreadAddWithTTASLock() throws Exception {
+
+		lock = new TTASLock();
+
+		multiThreadAddWithLock();
+	}
+
+
+	/**
+	 * 退避时间必须是正数, 并且上限不小于下限
+	 */
+	@Test
+	public void testTTASLockRejectsBadBackoff() throws Exception {
+
+		long[][] bad = {{0, 100}, {-1, 100}, {100, 0}, {100, 99}};
+		for (long[] backoff : bad) {
+			try {
+				new TTASLock(backoff[0], backoff[1]);
+				Assert.fail("accepted backoff " + backoff[0] + ", " + backoff[1]);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		lock = new TTASLock(1, Long.MAX_VALUE);
+
+		multiThreadAddWithLock();
+	}
+
+
+	@Test
+	public void multiThreadAddWithTicketLock() throws Exception {
+
+		lock = new TicketLock();
+
+		multiThreadAddWithLock();
+	}
+
+	@Test
+	public void multiThreadAddWithMCSLock() throws Exception {
+
+		lock = new MCSLock();
+
+		multiThreadAddWithLock();
+	}
+
+
+	@Test
+	public void multiThreadAddWithCLHLock() throws Exception {
+
+		lock = new CLHLock();
+
+		multiThreadAddWithLock();
+	}
+
+	/**
+	 * 一半线程用 lock, 一半线程用 tryLock 重试, CLH 的节点会被复用, tryLock 不能因为 ABA 和别的线程同时持有锁
+	 * @throws Exception
+	 */
+	@Test
+	public void multiThreadAddWithCLHTryLock() throws Exception {
+
+		Lock clh = new CLHLock();
+		int threadCount = 8;
+		int each = 20000;
+		ExecutorService threadPool = Executors.newCachedThreadPool();
+		CountDownLatch countDownLatch = new CountDownLatch(threadCount);
+		for (int t = 0; t < threadCount; t++) {
+			boolean tryLock = t % 2 == 0;
+			threadPool.submit(() -> {
+				for (int i = 0; i < each; i++) {
+					if (tryLock) {
+						while (!clh.tryLock()) {
+							Thread.yield();
+						}
+					} else {
+						clh.lock();
+					}
+					try {
+						add();
+					} finally {
+						clh.unlock();
+					}
+				}
+				countDownLatch.countDown();
+			});
+		}
+
+		countDownLatch.await();
+		threadPool.shutdownNow();
+
+		Assert.assertThat(shared, Is.is(threadCount * each));
+	}
+
+	@Test
+	public void multiThreadAddWithAdaptiveSpinLock() throws Exception {
+
+		AdaptiveSpinLock adaptive = new AdaptiveSpinLock();
+		lock = adaptive;
+
+		multiThreadAddWithLock();
+
+		logger.info(String.format("spin budget %d ns, average hold %d ns, park rate %.3f",
+				adaptive.spinBudgetNanos(), adaptive.averageHoldNanos(), adaptive.parkRate()));
+	}
+
+	/**
+	 * 持有时间超过 maxSpin 的一半的时候自旋预算是 0, 拿不到锁直接休眠, 休眠的比例高;
+	 * 持有时间很短的时候自旋一下就能拿到, 休眠的比例低. 单核的机器上不自旋, 只检查第一种情况
+	 * @throws Exception
+	 */
+	@Test
+	public void testAdaptiveSpinLockParkRate() throws Exception {
+
+		AdaptiveSpinLock longHold = new AdaptiveSpinLock(50, TimeUnit.MICROSECONDS);
+		double longRate = holdAndContend(longHold, TimeUnit.MILLISECONDS.toNanos(1), 50);
+
+		logger.info(String.format("long hold: spin budget %d ns, average hold %d ns, park rate %.3f",
+				longHold.spinBudgetNanos(), longHold.averageHoldNanos(), longRate));
+		Assert.assertThat(longHold.spinBudgetNanos(), Is.is(0L));
+		Assert.assertTrue(longRate > 0.1);
+
+		Assume.assumeTrue(Runtime.getRuntime().availableProcessors() > 1);
+
+		AdaptiveSpinLock shortHold = new AdaptiveSpinLock(1, TimeUnit.MILLISECONDS);
+		double shortRate = holdAndContend(shortHold, TimeUnit.MICROSECONDS.toNanos(1), 20000);
+
+		logger.info(String.format("short hold: spin budget %d ns, average hold %d ns, park rate %.3f",
+				shortHold.spinBudgetNanos(), shortHold.averageHoldNanos(), shortRate));
+		Assert.assertTrue(shortHold.spinBudgetNanos() > 0);
+		Assert.assertTrue(shortRate < longRate);
+	}
+
+	/**
+	 * 两个线程轮流加锁, 每次持有 holdNanos(忙等, 不让出 CPU), 返回休眠的比例
+	 */
+	private double holdAndContend(AdaptiveSpinLock lock, long holdNanos, int rounds) throws InterruptedException {
+		ExecutorService threadPool = Executors.newCachedThreadPool();
+		CountDownLatch countDownLatch = new CountDownLatch(2);
+		for (int t = 0; t < 2; t++) {
+			threadPool.submit(() -> {
+				for (int i = 0; i < rounds; i++) {
+					lock.lock();
+					try {
+						long start = System.nanoTime();
+						while (System.nanoTime() - start < holdNanos) {
+							add();
+						}
+					} finally {
+						lock.unlock();
+					}
+				}
+				countDownLatch.countDown();
+			});
+		}
+		countDownLatch.await();
+		threadPool.shutdownNow();
+		return lock.parkRate();
+	}
+
+	/**
+	 * 不加锁, 把 add 交给 combiner 去做, 一次加锁做完所有线程提交的 add
+	 * @throws Exception
+	 */
+	@Test
+	public void multiThreadAddWithFlatCombining() throws Exception {
+
+		FlatCombiner<LockedShareVariableTest> combiner = new FlatCombiner<>(this);
+
+		ExecutorService threadPool = Executors.newCachedThreadPool();
+		CountDownLatch countDownLatch = new CountDownLatch(count);
+		for (int i = 0; i < count; i++) {
+			threadPool.submit(() -> {
+				combiner.apply(t -> {
+					t.add();
+					return null;
+				});
+				countDownLatch.countDown();
+			});
+		}
+
+		countDownLatch.await();
+		threadPool.shutdownNow();
+
+		logger.info(String.format("multi thread result is %d, %d passes, average batch %.2f",
+				shared, combiner.passes(), combiner.averageBatch()));
+		Assert.assertThat(shared, Is.is(count));
+
+	}
+
+
+	/**
+	 * 包装一个非线程安全的堆, 所有线程一起放进去, 再一起取出来, 每个线程取出来的元素都是递增的
+	 * @throws Exception
+	 */
+	@Test
+	public void multiThreadHeapWithFlatCombining() throws Exception {
+
+		FlatCombiner<PriorityQueue<Integer>> heap = new FlatCombiner<>(new PriorityQueue<>());
+		int threadCount = 10;
+
+		ExecutorService threadPool = Executors.newCachedThreadPool();
+		CountDownLatch offered = new CountDownLatch(threadCount);
+		CountDownLatch polled = new CountDownLatch(threadCount);
+		AtomicInteger total = new AtomicInteger();
+		AtomicInteger unordered = new AtomicInteger();
+		for (int i = 0; i < threadCount; i++) {
+			int base = i;
+			threadPool.submit(() -> {
+				for (int j = 0; j < count; j++) {
+					int value = j * threadCount + base;
+					heap.apply(q -> q.offer(value));
+				}
+				offered.countDown();
+				try {
+					offered.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				int last = -1;
+				Integer value;
+				while ((value = heap.apply(PriorityQueue::poll)) != null) {
+					if (value < last) {
+						unordered.incrementAndGet();
+					}
+					last = value;
+					total.incrementAndGet();
+				}
+				polled.countDown();
+			});
+		}
+
+		polled.await();
+		threadPool.shutdownNow();
+
+		logger.info(String.format("%d passes, average batch %.2f", heap.passes(), heap.averageBatch()));
+		Assert.assertThat(total.get(), Is.is(count * threadCount));
+		Assert.assertThat(unordered.get(), Is.is(0));
+
+	}
+
 	private void addWithLock() {
 
 		lock.lock();
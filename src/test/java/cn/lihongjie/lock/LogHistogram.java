@@ -0,0 +1,119 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按 2 的幂分桶的直方图, 记录的时候不分配内存
+ * <p>
+ * 第 0 个桶是 0, 第 i 个桶是 [2^(i-1), 2^i), 一共 64 个桶, 覆盖所有非负的 long. 相对误差不超过一倍, 看等待时间是几十纳秒还是几毫秒已经够了.
+ * 记录就是一次 numberOfLeadingZeros 和两次原子加, 只有一个线程记录的时候连原子加都不需要
+ *
+ * @author 982264618@qq.com
+ */
+public class LogHistogram {
+
+	static final int BUCKETS = 64;
+
+	/**
+	 * 0 到 63 是每个桶的计数, 64 是所有值的和
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+
+	static int bucket(long value) {
+		return value <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+	}
+
+	public void record(long value) {
+		counts.getAndIncrement(bucket(value));
+		counts.getAndAdd(BUCKETS, Math.max(0, value));
+	}
+
+	/**
+	 * 调用者保证同一时刻只有一个线程在记录(比如在锁里面), 不需要原子加, 只是普通的读加上 lazySet
+	 */
+	public void recordSingleWriter(long value) {
+		int bucket = bucket(value);
+		counts.lazySet(bucket, counts.get(bucket) + 1);
+		counts.lazySet(BUCKETS, counts.get(BUCKETS) + Math.max(0, value));
+	}
+
+	/**
+	 * 复制一份当前的计数, 复制的过程中还在记录的话, 各个桶之间不是同一时刻的值
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+		}
+		return new Snapshot(copy, counts.get(BUCKETS));
+	}
+
+	public static final class Snapshot {
+
+		private final long[] buckets;
+		private final long count;
+		private final long sum;
+
+		Snapshot(long[] buckets, long sum) {
+			this.buckets = buckets;
+			long count = 0;
+			for (long bucket : buckets) {
+				count += bucket;
+			}
+			this.count = count;
+			this.sum = sum;
+		}
+
+		public long count() {
+			return count;
+		}
+
+		public double mean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		/**
+		 * 第 bucket 个桶的计数
+		 */
+		public long bucketCount(int bucket) {
+			return buckets[bucket];
+		}
+
+		/**
+		 * 第 q (0 到 1 之间) 分位数所在的桶的上界
+		 */
+		public long percentile(double q) {
+			long rank = (long) Math.ceil(q * count);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += buckets[i];
+				if (seen >= rank && seen > 0) {
+					return upperBound(i);
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * 最大值所在的桶的上界
+		 */
+		public long max() {
+			for (int i = BUCKETS - 1; i >= 0; i--) {
+				if (buckets[i] != 0) {
+					return upperBound(i);
+				}
+			}
+			return 0;
+		}
+
+		private static long upperBound(int bucket) {
+			return bucket == 0 ? 0 : bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("count=%d, mean=%.1f, p50<=%d, p99<=%d, max<=%d",
+					count, mean(), percentile(0.5), percentile(0.99), max());
+		}
+	}
+}
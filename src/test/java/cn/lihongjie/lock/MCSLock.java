@@ -0,0 +1,64 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * MCS 队列锁
+ * <p>
+ * TicketLock 和 TASLock 的等待线程都在读同一个变量, 每次释放锁所有等待线程的缓存行都会失效.
+ * MCS 把等待的线程排成一个链表, 每个线程只在自己的节点上自旋, 释放锁的时候只通知后继节点, 每次交接锁只有常数次缓存一致性流量, 并且先来先得
+ * <p>
+ * 每个线程的节点放在 ThreadLocal 里重复使用, 加锁和解锁都不分配内存. 锁不可重入, 所以一个线程同时只会用到一个节点
+ * <p>
+ * 和 TicketLock 一样, tryLock 和 lockInterruptibly 不排队, 只在队列为空的时候抢锁
+ *
+ * @author 982264618@qq.com
+ */
+public class MCSLock extends AbstractSpinLock {
+
+	private final AtomicReference<Node> tail = new AtomicReference<>();
+	private final ThreadLocal<Node> myNode = ThreadLocal.withInitial(Node::new);
+
+	@Override
+	protected boolean tryAcquire() {
+		Node node = myNode.get();
+		node.next = null;
+		return tail.compareAndSet(null, node);
+	}
+
+	@Override
+	protected void acquire() {
+		Node node = myNode.get();
+		node.next = null;
+		node.locked = true;
+		Node pred = tail.getAndSet(node);
+		if (pred != null) {
+			pred.next = node;
+			for (int i = 0; node.locked; i++) {
+				spin(i);
+			}
+		}
+	}
+
+	@Override
+	protected void release() {
+		Node node = myNode.get();
+		Node next = node.next;
+		if (next == null) {
+			// 没有后继, 把队列清空
+			if (tail.compareAndSet(node, null)) {
+				return;
+			}
+			// 后继已经入队, 但是还没有把自己挂到 next 上
+			for (int i = 0; (next = node.next) == null; i++) {
+				spin(i);
+			}
+		}
+		next.locked = false;
+	}
+
+	private static final class Node {
+		volatile boolean locked;
+		volatile Node next;
+	}
+}
@@ -0,0 +1,224 @@
+package cn.lihongjie.lock;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static cn.lihongjie.lock.UnsafeAccess.UNSAFE;
+
+/**
+ * 放在内存映射文件里的一组计数器, 同一台机器上的多个进程映射同一个文件就可以共享计数, 旁路进程直接读文件, 不需要 IPC
+ * <p>
+ * SyncCounter 和 RRCounter 的锁只在一个进程内有效, 跨进程只能靠 CPU 的原子指令, 这里通过 Unsafe 对映射的地址做 CAS/getAndAdd
+ * <p>
+ * 文件格式(版本 1, 字节序和本机一致):
+ * <pre>
+ * offset  size  字段
+ * 0       4     magic, 固定为 0x434E5452 ("CNTR"), 最后写入, 读者看到 magic 说明头部已经完整
+ * 4       4     version, 当前为 1
+ * 8       4     counterCount, 计数器的数量
+ * 12      4     slotSize, 每个计数器占用的字节数, 当前为 64, 一个计数器一个缓存行
+ * 16      48    保留, 全部为 0
+ * 64 + i * slotSize   8   第 i 个计数器的值(long)
+ * </pre>
+ * 创建和校验头部的时候持有文件锁, 所以多个进程同时打开同一个文件是安全的, 读者可以在任何时候打开文件.
+ * 旁路进程用 attach 只读打开, 只需要文件的读权限, 拿到的计数器不能修改
+ * <p>
+ * JAVA 8 没有办法主动解除映射, 映射在所有的 MappedCounter 都不可达之后由 GC 回收
+ *
+ * @author 982264618@qq.com
+ */
+public class MappedCounters implements Closeable {
+
+	public static final int MAGIC = 0x434E5452;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 64;
+	public static final int SLOT_SIZE = 64;
+
+	private static final long ADDRESS_OFFSET;
+
+	static {
+		try {
+			ADDRESS_OFFSET = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+		} catch (NoSuchFieldException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final long address;
+	private final int counterCount;
+	private final boolean readOnly;
+
+	private MappedCounters(FileChannel channel, MappedByteBuffer buffer, int counterCount, boolean readOnly) {
+		this.channel = channel;
+		this.buffer = buffer;
+		this.address = UNSAFE.getLong(buffer, ADDRESS_OFFSET);
+		this.counterCount = counterCount;
+		this.readOnly = readOnly;
+	}
+
+	/**
+	 * 打开文件, 文件不存在或者还没有初始化就按 counterCount 创建; 已经存在就校验头部, 以文件里的数量为准.
+	 * 还没有初始化指的是空文件, 或者 magic 为 0(创建到一半进程退出了, magic 是最后写的). 其他内容的文件不是计数器文件,
+	 * 和 attach 一样抛出 IllegalStateException, 不会覆盖
+	 */
+	public static MappedCounters open(Path path, int counterCount) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			MappedByteBuffer buffer;
+			FileLock lock = channel.lock();
+			try {
+				int magic = channel.size() == 0 ? 0 : channel.size() < HEADER_SIZE ? -1 : readMagic(channel);
+				if (magic != 0 && magic != MAGIC) {
+					throw new IllegalStateException("not a counter file: " + path);
+				}
+				if (magic == 0) {
+					buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) counterCount * SLOT_SIZE);
+					buffer.order(ByteOrder.nativeOrder());
+					buffer.putInt(4, VERSION);
+					buffer.putInt(8, counterCount);
+					buffer.putInt(12, SLOT_SIZE);
+					buffer.putInt(0, MAGIC);
+					buffer.force();
+				} else {
+					buffer = attach(channel, FileChannel.MapMode.READ_WRITE);
+					counterCount = buffer.getInt(8);
+				}
+			} finally {
+				lock.release();
+			}
+			return new MappedCounters(channel, buffer, counterCount, false);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * 只读打开一个已经初始化的文件, 旁路进程用这个方法读取别的进程的计数.
+	 * 校验头部的时候持有共享锁, 和正在创建文件的 open 互斥; 计数器的 add 和 sumThenReset 抛出 ReadOnlyBufferException
+	 */
+	public static MappedCounters attach(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			MappedByteBuffer buffer;
+			FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+			try {
+				if (channel.size() < HEADER_SIZE || readMagic(channel) != MAGIC) {
+					throw new IllegalStateException("counter file is not initialized: " + path);
+				}
+				buffer = attach(channel, FileChannel.MapMode.READ_ONLY);
+			} finally {
+				lock.release();
+			}
+			return new MappedCounters(channel, buffer, buffer.getInt(8), true);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static int readMagic(FileChannel channel) throws IOException {
+		MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+		header.order(ByteOrder.nativeOrder());
+		return header.getInt(0);
+	}
+
+	private static MappedByteBuffer attach(FileChannel channel, FileChannel.MapMode mode) throws IOException {
+		MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+		header.order(ByteOrder.nativeOrder());
+		int version = header.getInt(4);
+		if (version != VERSION) {
+			throw new IllegalStateException("unsupported counter file version " + version);
+		}
+		int slotSize = header.getInt(12);
+		if (slotSize != SLOT_SIZE) {
+			throw new IllegalStateException("unsupported counter slot size " + slotSize);
+		}
+		int counterCount = header.getInt(8);
+		MappedByteBuffer buffer = channel.map(mode, 0, HEADER_SIZE + (long) counterCount * SLOT_SIZE);
+		buffer.order(ByteOrder.nativeOrder());
+		return buffer;
+	}
+
+	public int size() {
+		return counterCount;
+	}
+
+	public Counter counter(int index) {
+		if (index < 0 || index >= counterCount) {
+			throw new IndexOutOfBoundsException("counter " + index + " of " + counterCount);
+		}
+		return new MappedCounter(this, address + HEADER_SIZE + (long) index * SLOT_SIZE);
+	}
+
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * 把计数刷到磁盘, 只有需要在机器重启之后保留计数的时候才需要, 进程之间共享不需要刷盘
+	 */
+	public void force() {
+		if (!readOnly) {
+			buffer.force();
+		}
+	}
+
+	/**
+	 * 关闭文件通道, 映射本身在 MappedCounter 不可达之后才会释放
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private static final class MappedCounter implements Counter {
+
+		/**
+		 * 持有引用, 保证映射不会在使用的时候被回收
+		 */
+		private final MappedCounters owner;
+		private final long address;
+
+		MappedCounter(MappedCounters owner, long address) {
+			this.owner = owner;
+			this.address = address;
+		}
+
+		@Override
+		public long getLong() {
+			return UNSAFE.getLongVolatile(null, address);
+		}
+
+		/**
+		 * 只读映射的页不能写, 通过 Unsafe 写的话 JVM 会直接崩溃, 所以先检查
+		 */
+		@Override
+		public void addLong(long i) {
+			checkWritable();
+			UNSAFE.getAndAddLong(null, address, i);
+		}
+
+		@Override
+		public long sumThenReset() {
+			checkWritable();
+			return UNSAFE.getAndSetLong(null, address, 0);
+		}
+
+		private void checkWritable() {
+			if (owner.readOnly) {
+				throw new ReadOnlyBufferException();
+			}
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package cn.lihongjie.lock;
+
+import org.hamcrest.core.Is;
+import org.junit.*;
+import org.junit.rules.Stopwatch;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.nutz.log.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.nutz.log.Logs.get;
+
+/**
+ * 同一个文件映射两次, 和两个进程映射同一个文件一样, 两个映射看到的是同一块物理内存
+ *
+ * @author 982264618@qq.com
+ */
+public class MappedCountersTest {
+	private static Log logger = get();
+
+	private static final int count = 10000;
+	private ExecutorService threadPool;
+
+
+	private static void logInfo(Description description, String status, long nanos) {
+		String testName = description.getMethodName();
+		logger.info(String.format("Test %s %s, spent %d microseconds",
+				testName, status, TimeUnit.NANOSECONDS.toMicros(nanos)));
+	}
+
+	@Rule
+	public Stopwatch stopwatch = new Stopwatch() {
+		@Override
+		protected void succeeded(long nanos, Description description) {
+			logInfo(description, "succeeded", nanos);
+		}
+
+		@Override
+		protected void failed(long nanos, Throwable e, Description description) {
+			logInfo(description, "failed", nanos);
+		}
+
+
+		@Override
+		protected void finished(long nanos, Description description) {
+//			logInfo(description, "finished", nanos);
+		}
+	};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+
+	@Before
+	public void setUp() throws Exception {
+		threadPool = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		threadPool.shutdownNow();
+	}
+
+
+	@Test
+	public void testSharedMapping() throws Exception {
+
+		Path path = folder.newFile("counters").toPath();
+
+		try (MappedCounters writerA = MappedCounters.open(path, 4);
+			 MappedCounters writerB = MappedCounters.open(path, 4);
+			 MappedCounters sidecar = MappedCounters.attach(path)) {
+
+			CountDownLatch latch = new CountDownLatch(10);
+			for (int i = 0; i < 10; i++) {
+				Counter counter = (i % 2 == 0 ? writerA : writerB).counter(1);
+				threadPool.submit(() -> {
+					for (int j = 0; j < count / 10; j++) {
+						counter.add(1);
+					}
+					latch.countDown();
+				});
+			}
+			latch.await();
+
+			Assert.assertThat(sidecar.size(), Is.is(4));
+			Assert.assertThat(sidecar.counter(1).get(), Is.is(count));
+			Assert.assertThat(sidecar.counter(0).get(), Is.is(0));
+		}
+	}
+
+
+	/**
+	 * 已经存在的文件以文件头里的数量为准, 计数在重新打开之后依然存在
+	 * @throws Exception
+	 */
+	@Test
+	public void testReopen() throws Exception {
+
+		Path path = folder.newFile("counters").toPath();
+
+		try (MappedCounters counters = MappedCounters.open(path, 2)) {
+			counters.counter(0).addLong(1L << 40);
+		}
+
+		try (MappedCounters counters = MappedCounters.open(path, 8)) {
+			Assert.assertThat(counters.size(), Is.is(2));
+			Assert.assertThat(counters.counter(0).sumThenReset(), Is.is(1L << 40));
+			Assert.assertThat(counters.counter(0).getLong(), Is.is(0L));
+		}
+	}
+
+
+	/**
+	 * 旁路进程只读映射, 能看到写进程的计数, 不能修改
+	 * @throws Exception
+	 */
+	@Test
+	public void testAttachReadOnly() throws Exception {
+
+		Path path = folder.newFile("counters").toPath();
+
+		try (MappedCounters writer = MappedCounters.open(path, 2);
+			 MappedCounters sidecar = MappedCounters.attach(path)) {
+
+			Assert.assertTrue(sidecar.isReadOnly());
+			writer.counter(1).add(42);
+			Assert.assertThat(sidecar.counter(1).get(), Is.is(42));
+
+			try {
+				sidecar.counter(1).add(1);
+				Assert.fail();
+			} catch (ReadOnlyBufferException e) {
+				// 只读
+			}
+			Assert.assertThat(writer.counter(1).get(), Is.is(42));
+		}
+	}
+
+
+	@Test(expected = IllegalStateException.class)
+	public void testAttachUninitialized() throws Exception {
+
+		MappedCounters.attach(folder.newFile("counters").toPath());
+	}
+
+
+	@Test(expected = IllegalStateException.class)
+	public void testUnsupportedVersion() throws Exception {
+
+		Path path = folder.newFile("counters").toPath();
+		MappedCounters.open(path, 1).close();
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			ByteBuffer version = ByteBuffer.allocate(4).order(ByteOrder.nativeOrder());
+			version.putInt(0, MappedCounters.VERSION + 1);
+			channel.write(version, 4);
+		}
+
+		MappedCounters.attach(path);
+	}
+
+
+	/**
+	 * 不是计数器文件的内容不能被 open 覆盖
+	 * @throws Exception
+	 */
+	@Test
+	public void testOpenRejectsForeignFile() throws Exception {
+
+		Path path = folder.newFile("counters").toPath();
+		byte[] content = new byte[MappedCounters.HEADER_SIZE * 2];
+		Arrays.fill(content, (byte) 'x');
+		Files.write(path, content);
+
+		try {
+			MappedCounters.open(path, 1);
+			Assert.fail("foreign file was reinitialized");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		Assert.assertArrayEquals(content, Files.readAllBytes(path));
+	}
+}
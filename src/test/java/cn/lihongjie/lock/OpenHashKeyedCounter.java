@@ -0,0 +1,237 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * 基于开放寻址(线性探测)的按 key 计数器
+ * <p>
+ * ConcurrentHashMap<Long, AtomicLong> 每个条目要一个 Node, 一个 Long, 一个 AtomicLong, 大约 80 字节, 还会产生很多垃圾.
+ * 这里 key 和计数各放在一个 long 数组里, 每个条目只要 16 字节(加上空闲的槽位)
+ * <p>
+ * 并发:
+ * 1. 新的 key 通过 CAS 抢占一个空槽位, key 一旦写入就不会删除, 所以同一个表里不会出现重复的 key
+ * 2. 计数通过 CAS 累加
+ * 3. 扩容的时候先挂上一个两倍大小的新表, 新的 key 都写到新表里; 迁移时把旧表每个槽位的计数换成 MOVED 再加到新表,
+ * 写线程看到 MOVED 就转到新表去写. 读线程从不等待, 看到 MOVED 或者找不到 key 就去新表里找
+ * <p>
+ * 和 ConcurrentHashMap 一样, 读是弱一致的: 一个 key 正在迁移的那一瞬间, get 可能读到偏小的值, forEach 可能把它的计数分两次给出
+ * <p>
+ * key 0 用来表示空槽位, 它的计数单独存放
+ *
+ * @author 982264618@qq.com
+ */
+public class OpenHashKeyedCounter implements KeyedCounter {
+
+	private static final long EMPTY = 0;
+	private static final long MOVED = Long.MIN_VALUE;
+
+	private static final AtomicReferenceFieldUpdater<OpenHashKeyedCounter, Table> TABLE =
+			AtomicReferenceFieldUpdater.newUpdater(OpenHashKeyedCounter.class, Table.class, "table");
+
+	private final AtomicLong zero = new AtomicLong();
+	private volatile Table table;
+
+	public OpenHashKeyedCounter() {
+		this(16);
+	}
+
+	public OpenHashKeyedCounter(int initialCapacity) {
+		int size = 2;
+		while (size < initialCapacity * 2) {
+			size <<= 1;
+		}
+		table = new Table(size);
+	}
+
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	@Override
+	public long get(long key) {
+		if (key == EMPTY) {
+			return zero.get();
+		}
+		for (Table t = table; t != null; t = t.next) {
+			int i = t.find(key);
+			if (i >= 0) {
+				long v = t.values.get(i);
+				if (v != MOVED) {
+					return v;
+				}
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public void add(long key, long delta) {
+		if (key == EMPTY) {
+			zero.addAndGet(delta);
+			return;
+		}
+		add(table, key, delta);
+	}
+
+	private void add(Table t, long key, long delta) {
+		for (; ; ) {
+			int i = t.claim(key);
+			if (i >= 0) {
+				AtomicLongArray values = t.values;
+				for (; ; ) {
+					long v = values.get(i);
+					if (v == MOVED) {
+						break;
+					}
+					if (values.compareAndSet(i, v, v + delta)) {
+						return;
+					}
+				}
+			}
+			t = resize(t);
+		}
+	}
+
+	/**
+	 * 返回 t 的下一个表, 如果还没有就创建一个, 创建成功的线程负责迁移
+	 */
+	private Table resize(Table t) {
+		Table next = t.next;
+		if (next != null) {
+			return next;
+		}
+		next = new Table(t.keys.length() * 2);
+		if (!Table.NEXT.compareAndSet(t, null, next)) {
+			return t.next;
+		}
+
+		AtomicLongArray keys = t.keys;
+		AtomicLongArray values = t.values;
+		for (int i = 0; i < keys.length(); i++) {
+			long v = values.getAndSet(i, MOVED);
+			if (v != 0) {
+				add(next, keys.get(i), v);
+			}
+		}
+		t.migrated = true;
+
+		// 把根节点推进到最新的已经迁移完的表
+		Table root = table;
+		while (root.migrated && root.next != null) {
+			TABLE.compareAndSet(this, root, root.next);
+			root = table;
+		}
+		return next;
+	}
+
+	@Override
+	public void forEach(Visitor visitor) {
+		long z = zero.get();
+		if (z != 0) {
+			visitor.visit(EMPTY, z);
+		}
+		for (Table t = table; t != null; t = t.next) {
+			for (int i = 0; i < t.keys.length(); i++) {
+				long key = t.keys.get(i);
+				long v = t.values.get(i);
+				if (key != EMPTY && v != MOVED && v != 0) {
+					visitor.visit(key, v);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 有过计数的 key 的数量, 扩容过程中可能偏大
+	 */
+	@Override
+	public int size() {
+		int size = zero.get() != 0 ? 1 : 0;
+		for (Table t = table; t != null; t = t.next) {
+			size += t.size.get();
+		}
+		return size;
+	}
+
+	public int capacity() {
+		Table t = table;
+		while (t.next != null) {
+			t = t.next;
+		}
+		return t.keys.length();
+	}
+
+	private static final class Table {
+
+		static final AtomicReferenceFieldUpdater<Table, Table> NEXT =
+				AtomicReferenceFieldUpdater.newUpdater(Table.class, Table.class, "next");
+
+		final AtomicLongArray keys;
+		final AtomicLongArray values;
+		final int mask;
+
+		/**
+		 * 负载因子 0.5, 线性探测在负载高的时候探测链会很长
+		 */
+		final int threshold;
+		final AtomicInteger size = new AtomicInteger();
+
+		volatile Table next;
+		volatile boolean migrated;
+
+		Table(int capacity) {
+			keys = new AtomicLongArray(capacity);
+			values = new AtomicLongArray(capacity);
+			mask = capacity - 1;
+			threshold = capacity / 2;
+		}
+
+		int find(long key) {
+			int i = hash(key) & mask;
+			for (int probe = 0; probe <= mask; probe++) {
+				long k = keys.get(i);
+				if (k == key) {
+					return i;
+				}
+				if (k == EMPTY) {
+					return -1;
+				}
+				i = (i + 1) & mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * 找到 key 所在的槽位, 没有就抢占一个空槽位; 已经开始扩容或者表满了返回 -1
+		 */
+		int claim(long key) {
+			int i = hash(key) & mask;
+			for (int probe = 0; probe <= mask; probe++) {
+				long k = keys.get(i);
+				if (k == key) {
+					return i;
+				}
+				if (k == EMPTY) {
+					if (next != null || size.get() >= threshold) {
+						return -1;
+					}
+					if (keys.compareAndSet(i, EMPTY, key)) {
+						size.incrementAndGet();
+						return i;
+					}
+					if (keys.get(i) == key) {
+						return i;
+					}
+				}
+				i = (i + 1) & mask;
+			}
+			return -1;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package cn.lihongjie.lock;
 
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -8,29 +9,42 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  */
 public class RRCounter implements Counter {
 
-	private int c;
-	private ReentrantReadWriteLock lock;
+	private long c;
+	private ReadWriteLock lock;
 
 	public RRCounter(int c) {
+		this(c, new ReentrantReadWriteLock());
+	}
+
+	public RRCounter(int c, ReadWriteLock lock) {
 		this.c = c;
 
-		lock = new ReentrantReadWriteLock();
+		this.lock = lock;
 	}
 
 	@Override
-	public int get() {
+	public long getLong() {
 		lock.readLock().lock();
-		int c = this.c;
+		long c = this.c;
 		lock.readLock().unlock();
 		return c;
-
 	}
 
 	@Override
-	public void add(int i) {
+	public void addLong(long i) {
 		lock.writeLock().lock();
 
 		c = c + i;
 		lock.writeLock().unlock();
 	}
+
+	@Override
+	public long sumThenReset() {
+		lock.writeLock().lock();
+
+		long c = this.c;
+		this.c = 0;
+		lock.writeLock().unlock();
+		return c;
+	}
 }
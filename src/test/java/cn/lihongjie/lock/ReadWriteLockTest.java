@@ -6,10 +6,13 @@ import org.junit.rules.Stopwatch;
 import org.junit.runner.Description;
 import org.nutz.log.Log;
 
+import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.nutz.log.Logs.get;
 
@@ -202,6 +205,343 @@ public class ReadWriteLockTest {
 
 
 	}
+
+
+	@Test
+	public void testWriteWithStripedCounter() throws Exception {
+
+		Counter counter = new StripedCounter(0);
+
+
+		singleThreadAdd(counter);
+
+
+	}
+
+	/**
+	 * 写多的情况下, 分段计数器的线程之间不会争抢同一个缓存行
+	 * @throws Exception
+	 */
+	@Test
+	public void testWriteWithStripedCounterConcurrent() throws Exception {
+
+		Counter counter = new StripedCounter(0);
+
+
+		concurrentThreadAdd(counter, 10);
+
+
+	}
+
+
+	@Test
+	public void testReadWriteWithStripedCounterConcurrent() throws Exception {
+
+		Counter counter = new StripedCounter(0);
+
+
+		concurrentThreadAddAndGet(counter, 10);
+
+
+	}
+
+
+	@Test
+	public void testWriteWithStampedCounter() throws Exception {
+
+		Counter counter = new StampedCounter(0);
+
+
+		singleThreadAdd(counter);
+
+
+	}
+
+	@Test
+	public void testWriteWithStampedCounterConcurrent() throws Exception {
+
+		Counter counter = new StampedCounter(0);
+
+
+		concurrentThreadAdd(counter, 10);
+
+
+	}
+
+
+	@Test
+	public void testReadWriteWithStampedCounterConcurrent() throws Exception {
+
+		Counter counter = new StampedCounter(0);
+
+
+		concurrentThreadAddAndGet(counter, 10);
+
+
+	}
+
+
+	@Test
+	public void testWriteWithAdaptiveCounter() throws Exception {
+
+		AdaptiveCounter counter = new AdaptiveCounter(0);
+
+
+		singleThreadAdd(counter);
+
+		// 没有竞争的时候不会膨胀
+		Assert.assertThat(counter.inflations(), Is.is(0));
+
+
+	}
+
+	@Test
+	public void testWriteWithAdaptiveCounterConcurrent() throws Exception {
+
+		AdaptiveCounter counter = new AdaptiveCounter(0);
+
+
+		concurrentThreadAdd(counter, 10);
+
+		logger.info(String.format("inflations %d, deflations %d", counter.inflations(), counter.deflations()));
+
+
+	}
+
+
+	@Test
+	public void testReadWriteWithAdaptiveCounterConcurrent() throws Exception {
+
+		Counter counter = new AdaptiveCounter(0);
+
+
+		concurrentThreadAddAndGet(counter, 10);
+
+
+	}
+
+
+	/**
+	 * quietPeriod 为 0 的时候, 膨胀之后的第一次读就会收缩回去
+	 * @throws Exception
+	 */
+	@Test
+	public void testAdaptiveCounterDeflate() throws Exception {
+
+		AdaptiveCounter counter = new AdaptiveCounter(0, 1, 0, TimeUnit.NANOSECONDS, 16);
+
+
+		concurrentThreadAdd(counter, 10);
+
+		Assert.assertFalse(counter.isInflated());
+		Assert.assertThat(counter.deflations(), Is.is(counter.inflations()));
+
+
+	}
+
+
+	/**
+	 * 膨胀之后只写不读, 安静下来之后写的时候也会收缩回去
+	 * @throws Exception
+	 */
+	@Test
+	public void testAdaptiveCounterDeflateOnWrite() throws Exception {
+
+		AdaptiveCounter counter = new AdaptiveCounter(0, 1, 10, TimeUnit.MILLISECONDS, 16);
+		int rounds = 0;
+		while (!counter.isInflated() && rounds++ < 100) {
+			concurrentThreadAdd(counter, 10);
+			counter.sumThenReset();
+		}
+		// 单核的机器上可能一直没有竞争
+		Assume.assumeTrue(counter.isInflated());
+
+		Thread.sleep(20);
+		for (int i = 0; i < 1000; i++) {
+			counter.add(1);
+		}
+
+		Assert.assertFalse(counter.isInflated());
+		Assert.assertThat(counter.deflations(), Is.is(counter.inflations()));
+		Assert.assertThat(counter.getLong(), Is.is(1000L));
+
+
+	}
+
+
+	/**
+	 * 只加正数, 一边加一边读, 读的时候不停地收缩, 读到的值不能倒退
+	 * @throws Exception
+	 */
+	@Test
+	public void testAdaptiveCounterMonotonicWhileDeflating() throws Exception {
+
+		AdaptiveCounter counter = new AdaptiveCounter(0, 1, 0, TimeUnit.NANOSECONDS, 16);
+		int threadCount = 4;
+		CountDownLatch latch = new CountDownLatch(threadCount * 2);
+		AtomicInteger backwards = new AtomicInteger();
+		AtomicBoolean done = new AtomicBoolean();
+
+		for (int t = 0; t < threadCount; t++) {
+			threadPool.submit(() -> {
+				for (int j = 0; j < count / threadCount; j++) {
+					counter.add(1);
+				}
+				latch.countDown();
+			});
+			threadPool.submit(() -> {
+				long last = 0;
+				while (!done.get()) {
+					long value = counter.getLong();
+					if (value < last) {
+						backwards.incrementAndGet();
+					}
+					last = value;
+					if (value == count) {
+						done.set(true);
+					}
+				}
+				latch.countDown();
+			});
+		}
+
+		latch.await();
+
+		logger.info(String.format("inflations %d, deflations %d", counter.inflations(), counter.deflations()));
+		Assert.assertThat(backwards.get(), Is.is(0));
+		Assert.assertThat(counter.getLong(), Is.is((long) count));
+
+
+	}
+
+
+	@Test
+	public void testWriteWithWindowCounterConcurrent() throws Exception {
+
+		Counter counter = new WindowCounter(1, TimeUnit.MINUTES, 60);
+
+
+		concurrentThreadAdd(counter, 10);
+
+
+	}
+
+
+	@Test
+	public void testWriteWithStripedRRCounterConcurrent() throws Exception {
+
+		Counter counter = new RRCounter(0, new StripedReadWriteLock());
+
+
+		concurrentThreadAdd(counter, 10);
+
+
+	}
+
+
+	@Test
+	public void testReadWriteWithStripedRRCounterConcurrent() throws Exception {
+
+		Counter counter = new RRCounter(0, new StripedReadWriteLock());
+
+
+		concurrentThreadAddAndGet(counter, 10);
+
+
+	}
+
+
+	@Test
+	public void testReadMostlyWithSyncCounterConcurrent() throws Exception {
+
+		Counter counter = new SyncCounter(0);
+
+
+		concurrentThreadReadMostly(counter, 10);
+
+
+	}
+
+
+	@Test
+	public void testReadMostlyWithRRCounterConcurrent() throws Exception {
+
+		Counter counter = new RRCounter(0);
+
+
+		concurrentThreadReadMostly(counter, 10);
+
+
+	}
+
+
+	/**
+	 * 读线程分散在不同的 slot 上, 读线程之间不再争抢同一个 state
+	 * @throws Exception
+	 */
+	@Test
+	public void testReadMostlyWithStripedRRCounterConcurrent() throws Exception {
+
+		Counter counter = new RRCounter(0, new StripedReadWriteLock());
+
+
+		concurrentThreadReadMostly(counter, 10);
+
+
+	}
+
+
+	/**
+	 * 读写比例 100:1 的时候, 乐观读基本不会失败, 读线程之间不再争抢锁的状态
+	 * @throws Exception
+	 */
+	@Test
+	public void testReadMostlyWithStampedCounterConcurrent() throws Exception {
+
+		Counter counter = new StampedCounter(0);
+
+
+		concurrentThreadReadMostly(counter, 10);
+
+
+	}
+
+	/**
+	 * 每个线程每读 99 次写 1 次
+	 */
+	private void concurrentThreadReadMostly(Counter counter, int threadCount) throws InterruptedException {
+
+		CountDownLatch latch = new CountDownLatch(threadCount);
+		int each = count / threadCount;
+		for (int i = 0; i < threadCount; i++) {
+
+
+			threadPool.submit(() -> {
+
+
+				for (int j = 0; j < each * 100; j++) {
+
+					if (j % 100 == 0) {
+						counter.add(1);
+					} else {
+						counter.get();
+					}
+
+
+				}
+
+				latch.countDown();
+
+			});
+
+
+		}
+
+
+		latch.await();
+
+		Assert.assertThat(counter.get(), Is.is(count));
+	}
 	private void singleThreadAdd(Counter counter) {
 		for (int i = 0; i < count; i++) {
 			counter.add(1);
@@ -210,4 +550,61 @@ public class ReadWriteLockTest {
 
 		Assert.assertThat(counter.get(), Is.is(count));
 	}
+
+
+	@Test
+	public void testLongAndBatchWithSyncCounter() throws Exception {
+
+		longAddAndBatch(new SyncCounter(0));
+	}
+
+	@Test
+	public void testLongAndBatchWithRRCounter() throws Exception {
+
+		longAddAndBatch(new RRCounter(0));
+	}
+
+	@Test
+	public void testLongAndBatchWithStripedCounter() throws Exception {
+
+		longAddAndBatch(new StripedCounter(0));
+	}
+
+	@Test
+	public void testLongAndBatchWithStampedCounter() throws Exception {
+
+		longAddAndBatch(new StampedCounter(0));
+	}
+
+	@Test
+	public void testLongAndBatchWithAdaptiveCounter() throws Exception {
+
+		longAddAndBatch(new AdaptiveCounter(0));
+	}
+
+	/**
+	 * 超过 int 范围之后 getLong 依然正确, 批量添加和逐个添加的结果一样, 清零之后从 0 开始
+	 */
+	private void longAddAndBatch(Counter counter) throws InterruptedException {
+
+		counter.addLong(Integer.MAX_VALUE);
+		counter.addLong(Integer.MAX_VALUE);
+		Assert.assertThat(counter.getLong(), Is.is(2L * Integer.MAX_VALUE));
+		Assert.assertThat(counter.sumThenReset(), Is.is(2L * Integer.MAX_VALUE));
+		Assert.assertThat(counter.getLong(), Is.is(0L));
+
+		int[] deltas = new int[count];
+		Arrays.fill(deltas, 1);
+		CountDownLatch latch = new CountDownLatch(10);
+		for (int i = 0; i < 10; i++) {
+			threadPool.submit(() -> {
+				counter.addAll(deltas);
+				latch.countDown();
+			});
+		}
+		latch.await();
+
+		Assert.assertThat(counter.sumThenReset(), Is.is(10L * count));
+		Assert.assertThat(counter.get(), Is.is(0));
+	}
 }
@@ -0,0 +1,76 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import static cn.lihongjie.lock.UnsafeAccess.UNSAFE;
+
+/**
+ * 顺序锁
+ * <p>
+ * 读线程不加锁, 也不写任何共享变量: 读之前记下版本号, 读完之后检查版本号有没有变, 变了就重读.
+ * 写线程在修改前后各把版本号加一, 版本号是奇数说明正在写
+ * <p>
+ * RRCounter 的读锁每次都要写锁的状态, 读线程之间也在争抢缓存行; 顺序锁的读只读不写, 没有写的时候读线程之间完全没有干扰.
+ * 代价是写多的时候读线程会一直重试, 并且读到的可能是写了一半的数据, 在 validate 之前不能使用
+ * <pre>
+ * long stamp;
+ * do {
+ *     stamp = lock.readBegin();
+ *     x = this.x;
+ *     y = this.y;
+ * } while (lock.readRetry(stamp));
+ * </pre>
+ * 读的字段可以是普通字段, readRetry 之前有一个 loadFence, 保证字段的读不会被重排到版本号的检查之后, 和 StampedLock.validate 一样
+ *
+ * @author 982264618@qq.com
+ */
+public class SeqLock {
+
+	private static final AtomicLongFieldUpdater<SeqLock> SEQUENCE =
+			AtomicLongFieldUpdater.newUpdater(SeqLock.class, "sequence");
+
+	private volatile long sequence;
+
+	/**
+	 * 等到没有写线程, 返回当前的版本号
+	 */
+	public long readBegin() {
+		long s;
+		for (int i = 0; ((s = sequence) & 1) != 0; i++) {
+			AbstractSpinLock.spin(i);
+		}
+		return s;
+	}
+
+	/**
+	 * 读的过程中有写线程修改过数据, 需要重读
+	 */
+	public boolean readRetry(long stamp) {
+		UNSAFE.loadFence();
+		return sequence != stamp;
+	}
+
+	/**
+	 * 写线程之间通过 CAS 互斥, 版本号变成奇数
+	 */
+	public void writeLock() {
+		for (int i = 0; ; i++) {
+			long s = sequence;
+			if ((s & 1) == 0 && SEQUENCE.compareAndSet(this, s, s + 1)) {
+				return;
+			}
+			AbstractSpinLock.spin(i);
+		}
+	}
+
+	/**
+	 * 版本号变回偶数, volatile 写保证之前对数据的修改先于版本号可见
+	 */
+	public void writeUnlock() {
+		sequence = sequence + 1;
+	}
+
+	public long sequence() {
+		return sequence;
+	}
+}
@@ -0,0 +1,170 @@
+package cn.lihongjie.lock;
+
+import org.hamcrest.core.Is;
+import org.junit.*;
+import org.junit.rules.Stopwatch;
+import org.junit.runner.Description;
+import org.nutz.log.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.nutz.log.Logs.get;
+
+/**
+ * 读多写少的时候, 顺序锁和 SyncCounter, RRCounter 的对比
+ *
+ * @author 982264618@qq.com
+ */
+public class SeqLockTest {
+	private static Log logger = get();
+
+	private static final int count = 10000;
+	private static final int threadCount = 10;
+	private ExecutorService threadPool;
+
+
+	private static void logInfo(Description description, String status, long nanos) {
+		String testName = description.getMethodName();
+		logger.info(String.format("Test %s %s, spent %d microseconds",
+				testName, status, TimeUnit.NANOSECONDS.toMicros(nanos)));
+	}
+
+	@Rule
+	public Stopwatch stopwatch = new Stopwatch() {
+		@Override
+		protected void succeeded(long nanos, Description description) {
+			logInfo(description, "succeeded", nanos);
+		}
+
+		@Override
+		protected void failed(long nanos, Throwable e, Description description) {
+			logInfo(description, "failed", nanos);
+		}
+
+
+		@Override
+		protected void finished(long nanos, Description description) {
+//			logInfo(description, "finished", nanos);
+		}
+	};
+
+
+	@Before
+	public void setUp() throws Exception {
+		threadPool = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		threadPool.shutdownNow();
+	}
+
+
+	@Test
+	public void testReadMostlyWithSyncCounter() throws Exception {
+
+		Counter counter = new SyncCounter(0);
+
+		readMostly(() -> counter.add(1), () -> counter.get() >= 0);
+
+		Assert.assertThat(counter.get(), Is.is(count));
+	}
+
+
+	@Test
+	public void testReadMostlyWithRRCounter() throws Exception {
+
+		Counter counter = new RRCounter(0);
+
+		readMostly(() -> counter.add(1), () -> counter.get() >= 0);
+
+		Assert.assertThat(counter.get(), Is.is(count));
+	}
+
+
+	/**
+	 * 两个值一起写, 一起读, 读到的值必须满足 values[1] == 2 * values[0]
+	 * @throws Exception
+	 */
+	@Test
+	public void testReadMostlyWithSeqLock() throws Exception {
+
+		SeqLockedValues values = new SeqLockedValues(2);
+		ThreadLocal<long[]> buffer = ThreadLocal.withInitial(() -> new long[2]);
+
+		readMostly(() -> values.update(v -> {
+			v[0] += 1;
+			v[1] += 2;
+		}), () -> {
+			long[] snapshot = values.snapshot(buffer.get());
+			return snapshot[1] == 2 * snapshot[0];
+		});
+
+		Assert.assertThat(values.get(0), Is.is((long) count));
+		Assert.assertThat(values.get(1), Is.is(2L * count));
+	}
+
+
+	@Test
+	public void testSeqLockWriteIsExclusive() throws Exception {
+
+		SeqLock lock = new SeqLock();
+		int[] shared = {0};
+
+		readMostly(() -> {
+			lock.writeLock();
+			shared[0]++;
+			lock.writeUnlock();
+		}, () -> true);
+
+		Assert.assertThat(shared[0], Is.is(count));
+		Assert.assertThat(lock.sequence(), Is.is(2L * count));
+	}
+
+
+	private interface Read {
+		boolean consistent();
+	}
+
+	/**
+	 * 每个线程每读 99 次写 1 次, 读到不一致的结果就失败
+	 */
+	private void readMostly(Runnable write, Read read) throws InterruptedException {
+
+		CountDownLatch latch = new CountDownLatch(threadCount);
+		AtomicInteger inconsistent = new AtomicInteger();
+		int each = count / threadCount;
+		for (int i = 0; i < threadCount; i++) {
+
+
+			threadPool.submit(() -> {
+
+
+				for (int j = 0; j < each * 100; j++) {
+
+					if (j % 100 == 0) {
+						write.run();
+					} else if (!read.consistent()) {
+						inconsistent.incrementAndGet();
+					}
+
+
+				}
+
+				latch.countDown();
+
+			});
+
+
+		}
+
+
+		latch.await();
+
+		Assert.assertThat(inconsistent.get(), Is.is(0));
+	}
+}
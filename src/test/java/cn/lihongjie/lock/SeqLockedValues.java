@@ -0,0 +1,77 @@
+package cn.lihongjie.lock;
+
+/**
+ * 用顺序锁保护的一组 long, 需要一起读出来的多个值放在这里, 比如 count 和 sum
+ * <p>
+ * double 可以通过 getDouble / setDouble 按位存放
+ *
+ * @author 982264618@qq.com
+ */
+public class SeqLockedValues {
+
+	private final SeqLock lock = new SeqLock();
+	private final long[] values;
+
+	public SeqLockedValues(int size) {
+		values = new long[size];
+	}
+
+	public int size() {
+		return values.length;
+	}
+
+	public long get(int index) {
+		long stamp;
+		long value;
+		do {
+			stamp = lock.readBegin();
+			value = values[index];
+		} while (lock.readRetry(stamp));
+		return value;
+	}
+
+	public double getDouble(int index) {
+		return Double.longBitsToDouble(get(index));
+	}
+
+	/**
+	 * 把所有的值一致地复制到 into 里, 不分配内存
+	 */
+	public long[] snapshot(long[] into) {
+		long stamp;
+		do {
+			stamp = lock.readBegin();
+			System.arraycopy(values, 0, into, 0, values.length);
+		} while (lock.readRetry(stamp));
+		return into;
+	}
+
+	public void set(int index, long value) {
+		lock.writeLock();
+		try {
+			values[index] = value;
+		} finally {
+			lock.writeUnlock();
+		}
+	}
+
+	public void setDouble(int index, double value) {
+		set(index, Double.doubleToRawLongBits(value));
+	}
+
+	/**
+	 * 在写锁里修改多个值, 读线程要么看到全部修改, 要么一个都看不到
+	 */
+	public void update(Updater updater) {
+		lock.writeLock();
+		try {
+			updater.update(values);
+		} finally {
+			lock.writeUnlock();
+		}
+	}
+
+	public interface Updater {
+		void update(long[] values);
+	}
+}
@@ -0,0 +1,62 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 基于 StampedLock 乐观读的计数器
+ * <p>
+ * RRCounter 每次读都要获取和释放读锁, 读锁本身也是一次对共享状态的写, 读多写少的时候读线程之间也在争抢
+ * <p>
+ * 乐观读只是读取一个版本号, 读完之后校验版本号有没有变, 没有变说明读的过程中没有人写, 变了再退化成读锁
+ *
+ * @author 982264618@qq.com
+ */
+public class StampedCounter implements Counter {
+
+	private long c;
+	private final StampedLock lock;
+
+	public StampedCounter(int c) {
+		this.c = c;
+
+		lock = new StampedLock();
+	}
+
+	@Override
+	public long getLong() {
+		long stamp = lock.tryOptimisticRead();
+		long c = this.c;
+		if (!lock.validate(stamp)) {
+			// 读的过程中有人写了, 退化为读锁
+			stamp = lock.readLock();
+			try {
+				c = this.c;
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return c;
+	}
+
+	@Override
+	public void addLong(long i) {
+		long stamp = lock.writeLock();
+		try {
+			c = c + i;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public long sumThenReset() {
+		long stamp = lock.writeLock();
+		try {
+			long c = this.c;
+			this.c = 0;
+			return c;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+}
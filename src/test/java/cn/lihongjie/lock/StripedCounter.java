@@ -0,0 +1,103 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段计数器, 思路和 LongAdder 一样
+ * <p>
+ * SyncCounter 和 RRCounter 在写多的情况下, 所有线程都在争抢同一个缓存行, 线程越多越慢
+ * <p>
+ * 这里把计数分散到多个 cell 上, 每个线程根据自己的 hash 选择一个 cell 做 CAS, CAS 失败说明有人和我抢同一个 cell, 那么换一个 hash 重试
+ * <p>
+ * 每个 cell 之间填充 PAD 个 long, 保证不同的 cell 不在同一个缓存行上(伪共享)
+ * <p>
+ * 代价是 get 需要把所有的 cell 加起来, 而且 get 的结果只是一个近似的快照
+ *
+ * @author 982264618@qq.com
+ */
+public class StripedCounter implements Counter {
+
+	/**
+	 * 16 个 long = 128 字节, 同时避开相邻缓存行的预取
+	 */
+	static final int PAD = 16;
+
+	private static final ThreadLocal<int[]> PROBE = ThreadLocal.withInitial(() -> {
+		int h = (int) (Thread.currentThread().getId() * 0x9E3779B9L);
+		return new int[]{h == 0 ? 1 : h};
+	});
+
+	private final AtomicLongArray cells;
+	private final int mask;
+
+	public StripedCounter(int c) {
+		this(c, Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	public StripedCounter(int c, int stripes) {
+		int size = 1;
+		while (size < stripes) {
+			size <<= 1;
+		}
+		mask = size - 1;
+		cells = new AtomicLongArray(size * PAD);
+		cells.set(0, c);
+	}
+
+	@Override
+	public long getLong() {
+		long sum = 0;
+		for (int i = 0; i <= mask; i++) {
+			sum += cells.get(i * PAD);
+		}
+		return sum;
+	}
+
+	@Override
+	public void addLong(long i) {
+		int[] probe = PROBE.get();
+		int h = probe[0];
+		for (; ; ) {
+			int index = (h & mask) * PAD;
+			long v = cells.get(index);
+			if (cells.compareAndSet(index, v, v + i)) {
+				return;
+			}
+			// 冲突了, 换一个 cell
+			h = rehash(h);
+			probe[0] = h;
+		}
+	}
+
+	/**
+	 * 逐个 cell 清零, 每个增量要么算在这次的结果里, 要么留给下一次, 不会丢失
+	 * <p>
+	 * 但是和 LongAdder 一样, 有并发写的时候这不是一个原子的快照
+	 */
+	@Override
+	public long sumThenReset() {
+		long sum = 0;
+		for (int i = 0; i <= mask; i++) {
+			sum += cells.getAndSet(i * PAD, 0);
+		}
+		return sum;
+	}
+
+	/**
+	 * 当前线程的 hash, 用数组包装是为了可以原地修改
+	 */
+	static int[] probe() {
+		return PROBE.get();
+	}
+
+	static int rehash(int h) {
+		h ^= h << 13;
+		h ^= h >>> 17;
+		h ^= h << 5;
+		return h;
+	}
+
+	public int stripes() {
+		return mask + 1;
+	}
+}
@@ -0,0 +1,233 @@
+package cn.lihongjie.lock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+
+import static cn.lihongjie.lock.StripedCounter.PAD;
+
+/**
+ * 分段锁, 把任意的 key 映射到固定数量的锁上
+ * <p>
+ * LockedShareVariableTest 用一个锁保护所有的数据, 不相关的 key 之间也要互相等待; 每个 key 一个锁又太占内存.
+ * 这里锁的数量是固定的 2 的幂, key 的 hash 决定用哪一个, 不同的 key 可能共用一个锁(多等一会, 但是不会出错)
+ * <p>
+ * 同时要锁多个 key 的时候用 bulkGet, 返回的锁按下标排好序并且去重, 所有线程都按这个顺序加锁就不会死锁(见 DeadLockTest)
+ * <p>
+ * 每个分段记录加锁次数和需要等待的次数(加锁之前看锁的状态, 见 LockProbes), 用来判断分段数够不够, 或者 hash 是不是不均匀.
+ * 不能先 tryLock 再 lock, 读写锁的读锁 tryLock 会插到排队的写线程前面.
+ * 统计和 StripedCounter 一样按缓存行隔开. 锁对象是连续分配的, 相邻分段的 AQS 状态很可能在同一个缓存行上, 不相关的 key 之间还是会互相影响.
+ * 所以和 Guava 的 Striped 一样, 分段用的是多了几个 long 字段的 ReentrantLock / ReentrantReadWriteLock 子类,
+ * 把相邻分段的锁对象撑开到一个缓存行以上. JVM 不保证字段和对象的布局, 这只是尽量
+ *
+ * @author 982264618@qq.com
+ */
+public class StripedLock<L> {
+
+	private static final int ACQUIRED = 0;
+	private static final int CONTENDED = 1;
+
+	private final Object[] stripes;
+	private final int mask;
+	private final AtomicLongArray stats;
+
+	private StripedLock(int stripes, boolean readWrite) {
+		int size = 1;
+		while (size < stripes) {
+			size <<= 1;
+		}
+		mask = size - 1;
+		stats = new AtomicLongArray(size * PAD);
+		this.stripes = new Object[size];
+		for (int i = 0; i < size; i++) {
+			if (readWrite) {
+				ReentrantReadWriteLock lock = new PaddedReadWriteLock();
+				this.stripes[i] = new CountingReadWriteLock(
+						new CountingLock(lock.readLock(), LockProbes.readBusy(lock), i),
+						new CountingLock(lock.writeLock(), LockProbes.writeBusy(lock), i));
+			} else {
+				ReentrantLock lock = new PaddedLock();
+				this.stripes[i] = new CountingLock(lock, LockProbes.busy(lock), i);
+			}
+		}
+	}
+
+	/**
+	 * 每个分段是一个 ReentrantLock
+	 */
+	public static StripedLock<Lock> lock(int stripes) {
+		return new StripedLock<>(stripes, false);
+	}
+
+	/**
+	 * 每个分段是一个 ReentrantReadWriteLock, 读锁和写锁的加锁次数记在一起
+	 */
+	public static StripedLock<ReadWriteLock> readWriteLock(int stripes) {
+		return new StripedLock<>(stripes, true);
+	}
+
+	@SuppressWarnings("unchecked")
+	public L get(Object key) {
+		return (L) stripes[indexFor(key)];
+	}
+
+	@SuppressWarnings("unchecked")
+	public L getAt(int index) {
+		return (L) stripes[index];
+	}
+
+	public int indexFor(Object key) {
+		return (int) CountMinSketch.mix(key.hashCode()) & mask;
+	}
+
+	public int size() {
+		return stripes.length;
+	}
+
+	/**
+	 * 多个 key 对应的锁, 按下标从小到大排序, 相同的锁只出现一次
+	 */
+	@SuppressWarnings("unchecked")
+	public List<L> bulkGet(Object... keys) {
+		int[] indexes = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			indexes[i] = indexFor(keys[i]);
+		}
+		Arrays.sort(indexes);
+		List<L> locks = new ArrayList<>(indexes.length);
+		for (int i = 0; i < indexes.length; i++) {
+			if (i == 0 || indexes[i] != indexes[i - 1]) {
+				locks.add((L) stripes[indexes[i]]);
+			}
+		}
+		return locks;
+	}
+
+	/**
+	 * 第 index 个分段加锁的次数
+	 */
+	public long acquisitions(int index) {
+		return stats.get(index * PAD + ACQUIRED);
+	}
+
+	/**
+	 * 第 index 个分段加锁时需要等待的次数
+	 */
+	public long contended(int index) {
+		return stats.get(index * PAD + CONTENDED);
+	}
+
+	private void acquired(int index, boolean contended) {
+		stats.incrementAndGet(index * PAD + ACQUIRED);
+		if (contended) {
+			stats.incrementAndGet(index * PAD + CONTENDED);
+		}
+	}
+
+	/**
+	 * 加锁之前 busy 说要等待的算一次等待, 加锁调用的是调用者要的方法
+	 */
+	private final class CountingLock implements Lock {
+
+		private final Lock delegate;
+		private final BooleanSupplier busy;
+		private final int index;
+
+		CountingLock(Lock delegate, BooleanSupplier busy, int index) {
+			this.delegate = delegate;
+			this.busy = busy;
+			this.index = index;
+		}
+
+		@Override
+		public void lock() {
+			boolean contended = busy.getAsBoolean();
+			delegate.lock();
+			acquired(index, contended);
+		}
+
+		@Override
+		public void lockInterruptibly() throws InterruptedException {
+			boolean contended = busy.getAsBoolean();
+			delegate.lockInterruptibly();
+			acquired(index, contended);
+		}
+
+		@Override
+		public boolean tryLock() {
+			if (delegate.tryLock()) {
+				acquired(index, false);
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+			boolean contended = busy.getAsBoolean();
+			if (delegate.tryLock(time, unit)) {
+				acquired(index, contended);
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public void unlock() {
+			delegate.unlock();
+		}
+
+		@Override
+		public Condition newCondition() {
+			return delegate.newCondition();
+		}
+	}
+
+	/**
+	 * 对象头和 sync 引用加上 6 个 long 正好是 64 字节, 构造的时候紧接着分配的 AQS 和下一个分段的隔开一个缓存行
+	 */
+	@SuppressWarnings("unused")
+	private static final class PaddedLock extends ReentrantLock {
+
+		private static final long serialVersionUID = 2316597440327469436L;
+
+		long p1, p2, p3, p4, p5, p6;
+	}
+
+	@SuppressWarnings("unused")
+	private static final class PaddedReadWriteLock extends ReentrantReadWriteLock {
+
+		private static final long serialVersionUID = -6962140417813291624L;
+
+		long p1, p2, p3, p4, p5, p6;
+	}
+
+	private static final class CountingReadWriteLock implements ReadWriteLock {
+
+		private final Lock readLock;
+		private final Lock writeLock;
+
+		CountingReadWriteLock(Lock readLock, Lock writeLock) {
+			this.readLock = readLock;
+			this.writeLock = writeLock;
+		}
+
+		@Override
+		public Lock readLock() {
+			return readLock;
+		}
+
+		@Override
+		public Lock writeLock() {
+			return writeLock;
+		}
+	}
+}
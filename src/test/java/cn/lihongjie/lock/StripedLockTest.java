@@ -0,0 +1,294 @@
+package cn.lihongjie.lock;
+
+import org.hamcrest.core.Is;
+import org.junit.*;
+import org.junit.rules.Stopwatch;
+import org.junit.runner.Description;
+import org.nutz.log.Log;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.nutz.log.Logs.get;
+
+/**
+ * 账户之间转账, 一个全局锁和分段锁的对比
+ *
+ * @author 982264618@qq.com
+ */
+public class StripedLockTest {
+	private static Log logger = get();
+
+	private static final int threadCount = 10;
+	private static final int transfersPerThread = 100000;
+	private static final int accountCount = 1000;
+	private static final long initial = 1000;
+	private ExecutorService threadPool;
+	private long[] accounts;
+
+
+	private static void logInfo(Description description, String status, long nanos) {
+		String testName = description.getMethodName();
+		logger.info(String.format("Test %s %s, spent %d microseconds",
+				testName, status, TimeUnit.NANOSECONDS.toMicros(nanos)));
+	}
+
+	@Rule
+	public Stopwatch stopwatch = new Stopwatch() {
+		@Override
+		protected void succeeded(long nanos, Description description) {
+			logInfo(description, "succeeded", nanos);
+		}
+
+		@Override
+		protected void failed(long nanos, Throwable e, Description description) {
+			logInfo(description, "failed", nanos);
+		}
+
+
+		@Override
+		protected void finished(long nanos, Description description) {
+//			logInfo(description, "finished", nanos);
+		}
+	};
+
+
+	@Before
+	public void setUp() throws Exception {
+		threadPool = Executors.newCachedThreadPool();
+		accounts = new long[accountCount];
+		for (int i = 0; i < accountCount; i++) {
+			accounts[i] = initial;
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		threadPool.shutdownNow();
+	}
+
+
+	@Test
+	public void testTransferWithGlobalLock() throws Exception {
+
+		Lock lock = new ReentrantLock();
+
+		concurrentTransfer((from, to) -> {
+			lock.lock();
+			try {
+				transfer(from, to);
+			} finally {
+				lock.unlock();
+			}
+		});
+
+		assertTotal();
+	}
+
+
+	/**
+	 * 两个账户的锁按下标顺序加锁, 不会死锁
+	 * @throws Exception
+	 */
+	@Test
+	public void testTransferWithStripedLock() throws Exception {
+
+		StripedLock<Lock> striped = StripedLock.lock(64);
+
+		concurrentTransfer((from, to) -> {
+			List<Lock> locks = striped.bulkGet(from, to);
+			for (Lock lock : locks) {
+				lock.lock();
+			}
+			try {
+				transfer(from, to);
+			} finally {
+				for (int i = locks.size() - 1; i >= 0; i--) {
+					locks.get(i).unlock();
+				}
+			}
+		});
+
+		assertTotal();
+
+		long acquisitions = 0;
+		long contended = 0;
+		for (int i = 0; i < striped.size(); i++) {
+			acquisitions += striped.acquisitions(i);
+			contended += striped.contended(i);
+		}
+		logger.info(String.format("%d acquisitions, %d contended", acquisitions, contended));
+		Assert.assertTrue(acquisitions >= (long) threadCount * transfersPerThread);
+	}
+
+
+	/**
+	 * 读锁之间不互斥, 写锁和读锁互斥, 读到的账户余额不会是转了一半的.
+	 * 账户两两一组, 只在组内转账, 每组的余额之和不变; 锁的 key 是组号, 不同的组分散在不同的分段上
+	 * @throws Exception
+	 */
+	@Test
+	public void testStripedReadWriteLock() throws Exception {
+
+		StripedLock<ReadWriteLock> striped = StripedLock.readWriteLock(16);
+		int[] inconsistent = {0};
+
+		concurrentTransfer((from, to) -> {
+			int pair = from / 2;
+			ReadWriteLock lock = striped.get(pair);
+			if (from % 10 == 0) {
+				lock.writeLock().lock();
+				try {
+					transfer(pair * 2, pair * 2 + 1);
+				} finally {
+					lock.writeLock().unlock();
+				}
+			} else {
+				lock.readLock().lock();
+				try {
+					if (accounts[pair * 2] + accounts[pair * 2 + 1] != initial * 2) {
+						synchronized (inconsistent) {
+							inconsistent[0]++;
+						}
+					}
+				} finally {
+					lock.readLock().unlock();
+				}
+			}
+		});
+
+		Assert.assertThat(inconsistent[0], Is.is(0));
+		assertTotal();
+		for (int i = 0; i < striped.size(); i++) {
+			Assert.assertTrue(striped.acquisitions(i) > 0);
+		}
+	}
+
+
+	/**
+	 * 有写线程在排队的时候, 新的读线程要排在它后面, 统计等待次数不能让读锁插队
+	 * @throws Exception
+	 */
+	@Test
+	public void testReadStripeNotBargingQueuedWriter() throws Exception {
+
+		StripedLock<ReadWriteLock> striped = StripedLock.readWriteLock(1);
+		ReadWriteLock lock = striped.getAt(0);
+
+		AtomicReference<Thread> writerThread = new AtomicReference<>();
+		lock.readLock().lock();
+		Future<?> writer = threadPool.submit(() -> {
+			writerThread.set(Thread.currentThread());
+			lock.writeLock().lock();
+			lock.writeLock().unlock();
+		});
+		// 等写线程在锁上排队
+		while (writerThread.get() == null || writerThread.get().getState() != Thread.State.WAITING) {
+			Thread.sleep(1);
+		}
+		Future<?> reader = threadPool.submit(() -> {
+			lock.readLock().lock();
+			lock.readLock().unlock();
+		});
+		try {
+			reader.get(100, TimeUnit.MILLISECONDS);
+			Assert.fail("reader barged ahead of the queued writer");
+		} catch (TimeoutException expected) {
+			// 读线程排在写线程后面
+		}
+		lock.readLock().unlock();
+
+		writer.get();
+		reader.get();
+		Assert.assertThat(striped.acquisitions(0), Is.is(3L));
+		Assert.assertThat(striped.contended(0), Is.is(2L));
+	}
+
+
+	@Test
+	public void testBulkGetSortedAndDistinct() throws Exception {
+
+		StripedLock<Lock> striped = StripedLock.lock(4);
+
+		List<Lock> locks = striped.bulkGet(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 1, 2);
+		Assert.assertThat(striped.size(), Is.is(4));
+		Assert.assertTrue(locks.size() <= striped.size());
+		int last = -1;
+		for (Lock lock : locks) {
+			int index = indexOf(striped, lock);
+			Assert.assertTrue(index > last);
+			last = index;
+		}
+	}
+
+
+	private static int indexOf(StripedLock<Lock> striped, Lock lock) {
+		for (int i = 0; i < striped.size(); i++) {
+			if (striped.getAt(i) == lock) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void transfer(int from, int to) {
+		accounts[from]--;
+		accounts[to]++;
+	}
+
+	private void assertTotal() {
+		long total = 0;
+		for (long account : accounts) {
+			total += account;
+		}
+		Assert.assertThat(total, Is.is(initial * accountCount));
+	}
+
+
+	private interface Transfer {
+		void transfer(int from, int to);
+	}
+
+	/**
+	 * 每个线程在随机的两个不同账户之间转账
+	 */
+	private void concurrentTransfer(Transfer transfer) throws InterruptedException {
+
+		CountDownLatch latch = new CountDownLatch(threadCount);
+		for (int i = 0; i < threadCount; i++) {
+
+
+			Random random = new Random(i);
+			threadPool.submit(() -> {
+
+
+				for (int j = 0; j < transfersPerThread; j++) {
+
+					int from = random.nextInt(accountCount);
+					int to = (from + 1 + random.nextInt(accountCount - 1)) % accountCount;
+					transfer.transfer(from, to);
+
+
+				}
+
+				latch.countDown();
+
+			});
+
+
+		}
+
+
+		latch.await();
+	}
+}
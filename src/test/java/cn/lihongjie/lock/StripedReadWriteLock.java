@@ -0,0 +1,226 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static cn.lihongjie.lock.StripedCounter.PAD;
+
+/**
+ * 偏向读的读写锁, 读线程在分段的计数上登记自己
+ * <p>
+ * ReentrantReadWriteLock 的每次加读锁都要 CAS 同一个 state, 读线程之间也在争抢同一个缓存行, 所以读写锁只有在一定的读写比例下才有优势.
+ * 这里每个读线程根据 hash 在自己的 slot 上加一, 不同的读线程写不同的缓存行, 读的吞吐量可以随 CPU 数线性增长
+ * <p>
+ * 写锁:
+ * 1. 先拿到写线程之间的互斥锁
+ * 2. 把 writer 置为 true, 再等待所有的 slot 变成 0
+ * <p>
+ * 读锁: 先在 slot 上加一, 再检查 writer, 如果有写线程就把 slot 减回去, 在写线程的互斥锁上排队等它释放.
+ * 读线程是 "先写 slot 再读 writer", 写线程是 "先写 writer 再读 slot", 都是 volatile 读写, 所以两者至少有一方能看到对方
+ * <p>
+ * 代价是写锁要扫描所有的 slot, 适合读远多于写的场景.
+ * 读锁不可重入(有写线程在等待的时候重入会死锁), 写锁可重入, 持有写锁的线程可以再加读锁(降级), 不支持条件变量
+ *
+ * @author 982264618@qq.com
+ */
+public class StripedReadWriteLock implements ReadWriteLock {
+
+	/**
+	 * 读线程选择的 slot 在加锁和解锁之间不能变, 所以不用 StripedCounter 的 probe(它在冲突的时候会变)
+	 */
+	private static final ThreadLocal<int[]> SLOT = ThreadLocal.withInitial(
+			() -> new int[]{(int) (Thread.currentThread().getId() * 0x9E3779B9L)});
+
+	private final AtomicLongArray readers;
+	private final int mask;
+	private final ReentrantLock writerMutex = new ReentrantLock();
+	private volatile boolean writer;
+
+	private final ReadLock readLock = new ReadLock();
+	private final WriteLock writeLock = new WriteLock();
+
+	public StripedReadWriteLock() {
+		this(Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	public StripedReadWriteLock(int stripes) {
+		int size = 1;
+		while (size < stripes) {
+			size <<= 1;
+		}
+		mask = size - 1;
+		readers = new AtomicLongArray(size * PAD);
+	}
+
+	@Override
+	public Lock readLock() {
+		return readLock;
+	}
+
+	@Override
+	public Lock writeLock() {
+		return writeLock;
+	}
+
+	private static int slot(int mask) {
+		return (SLOT.get()[0] & mask) * PAD;
+	}
+
+	private boolean readersDrained() {
+		for (int i = 0; i <= mask; i++) {
+			if (readers.get(i * PAD) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private final class ReadLock implements Lock {
+
+		/**
+		 * 登记成功返回 true, 有写线程返回 false, 并且已经撤销了登记
+		 */
+		private boolean tryRegister(int slot) {
+			readers.incrementAndGet(slot);
+			if (!writer || writerMutex.isHeldByCurrentThread()) {
+				return true;
+			}
+			readers.decrementAndGet(slot);
+			return false;
+		}
+
+		@Override
+		public void lock() {
+			int slot = slot(mask);
+			while (!tryRegister(slot)) {
+				// 在互斥锁上排队, 等写线程释放
+				writerMutex.lock();
+				writerMutex.unlock();
+			}
+		}
+
+		@Override
+		public void lockInterruptibly() throws InterruptedException {
+			int slot = slot(mask);
+			while (!tryRegister(slot)) {
+				writerMutex.lockInterruptibly();
+				writerMutex.unlock();
+			}
+		}
+
+		@Override
+		public boolean tryLock() {
+			return tryRegister(slot(mask));
+		}
+
+		@Override
+		public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+			long deadline = System.nanoTime() + unit.toNanos(time);
+			int slot = slot(mask);
+			while (!tryRegister(slot)) {
+				if (!writerMutex.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+					return false;
+				}
+				writerMutex.unlock();
+			}
+			return true;
+		}
+
+		@Override
+		public void unlock() {
+			readers.decrementAndGet(slot(mask));
+		}
+
+		@Override
+		public Condition newCondition() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private final class WriteLock implements Lock {
+
+		@Override
+		public void lock() {
+			writerMutex.lock();
+			if (writerMutex.getHoldCount() == 1) {
+				writer = true;
+				for (int i = 0; !readersDrained(); i++) {
+					AbstractSpinLock.spin(i);
+				}
+			}
+		}
+
+		@Override
+		public void lockInterruptibly() throws InterruptedException {
+			writerMutex.lockInterruptibly();
+			if (writerMutex.getHoldCount() == 1) {
+				writer = true;
+				for (int i = 0; !readersDrained(); i++) {
+					if (Thread.interrupted()) {
+						unlock();
+						throw new InterruptedException();
+					}
+					AbstractSpinLock.spin(i);
+				}
+			}
+		}
+
+		@Override
+		public boolean tryLock() {
+			if (!writerMutex.tryLock()) {
+				return false;
+			}
+			if (writerMutex.getHoldCount() == 1) {
+				writer = true;
+				if (!readersDrained()) {
+					unlock();
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+			long deadline = System.nanoTime() + unit.toNanos(time);
+			if (!writerMutex.tryLock(time, unit)) {
+				return false;
+			}
+			if (writerMutex.getHoldCount() == 1) {
+				writer = true;
+				for (int i = 0; !readersDrained(); i++) {
+					if (Thread.interrupted()) {
+						unlock();
+						throw new InterruptedException();
+					}
+					if (System.nanoTime() - deadline >= 0) {
+						unlock();
+						return false;
+					}
+					AbstractSpinLock.spin(i);
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public void unlock() {
+			if (!writerMutex.isHeldByCurrentThread()) {
+				throw new IllegalMonitorStateException();
+			}
+			if (writerMutex.getHoldCount() == 1) {
+				writer = false;
+			}
+			writerMutex.unlock();
+		}
+
+		@Override
+		public Condition newCondition() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static cn.lihongjie.lock.StripedCounter.PAD;
+
+/**
+ * 并发的统计收集器, 记录 count / sum / min / max / 方差
+ * <p>
+ * 用 synchronized 实现最简单, 但是所有记录的线程都串行在一个锁上. 这里和 StripedCounter 一样把记录分散到多个 cell 上,
+ * 读的时候再合并. 每个 cell 有多个字段, 需要一起更新, 所以每个 cell 自带一个版本号:
+ * 1. 写: 把偶数版本号 CAS 成奇数, 更新字段, 再把版本号加一变回偶数. CAS 失败说明这个 cell 有人在写, 那么换一个 cell, 写线程从不等待
+ * 2. 读: 读版本号, 读字段, 再读一次版本号, 两次一样并且是偶数才说明读到的字段是同一次写的结果, 否则重读
+ * <p>
+ * 每个 cell 的 count 和 sum 是一起读出来的, 所以快照里的 sum 一定恰好是 count 个样本的和.
+ * 方差用 Welford 算法在每个 cell 里增量计算, 合并的时候用 Chan 的并行公式
+ *
+ * @author 982264618@qq.com
+ */
+public class StripedStats {
+
+	private static final int VERSION = 0;
+	private static final int COUNT = 1;
+	private static final int SUM = 2;
+	private static final int MIN = 3;
+	private static final int MAX = 4;
+	private static final int MEAN = 5;
+	private static final int M2 = 6;
+
+	private final AtomicLongArray cells;
+	private final int mask;
+
+	public StripedStats() {
+		this(Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	public StripedStats(int stripes) {
+		int size = 1;
+		while (size < stripes) {
+			size <<= 1;
+		}
+		mask = size - 1;
+		cells = new AtomicLongArray(size * PAD);
+		for (int i = 0; i < size; i++) {
+			cells.set(i * PAD + MIN, Long.MAX_VALUE);
+			cells.set(i * PAD + MAX, Long.MIN_VALUE);
+		}
+	}
+
+	public void record(long value) {
+		int[] probe = StripedCounter.probe();
+		int h = probe[0];
+		for (; ; ) {
+			int base = (h & mask) * PAD;
+			long version = cells.get(base + VERSION);
+			if ((version & 1) == 0 && cells.compareAndSet(base + VERSION, version, version + 1)) {
+				long count = cells.get(base + COUNT) + 1;
+				double mean = Double.longBitsToDouble(cells.get(base + MEAN));
+				double m2 = Double.longBitsToDouble(cells.get(base + M2));
+				double delta = value - mean;
+				mean += delta / count;
+				m2 += delta * (value - mean);
+
+				cells.lazySet(base + COUNT, count);
+				cells.lazySet(base + SUM, cells.get(base + SUM) + value);
+				cells.lazySet(base + MIN, Math.min(cells.get(base + MIN), value));
+				cells.lazySet(base + MAX, Math.max(cells.get(base + MAX), value));
+				cells.lazySet(base + MEAN, Double.doubleToRawLongBits(mean));
+				cells.lazySet(base + M2, Double.doubleToRawLongBits(m2));
+				cells.set(base + VERSION, version + 2);
+				return;
+			}
+			// 有人在写这个 cell, 换一个
+			h = StripedCounter.rehash(h);
+			probe[0] = h;
+		}
+	}
+
+	public Snapshot snapshot() {
+		Snapshot snapshot = new Snapshot(0, 0, Long.MAX_VALUE, Long.MIN_VALUE, 0, 0);
+		for (int i = 0; i <= mask; i++) {
+			snapshot = snapshot.merge(read(i * PAD));
+		}
+		return snapshot;
+	}
+
+	private Snapshot read(int base) {
+		for (; ; ) {
+			long version = cells.get(base + VERSION);
+			if ((version & 1) != 0) {
+				Thread.yield();
+				continue;
+			}
+			long count = cells.get(base + COUNT);
+			long sum = cells.get(base + SUM);
+			long min = cells.get(base + MIN);
+			long max = cells.get(base + MAX);
+			double mean = Double.longBitsToDouble(cells.get(base + MEAN));
+			double m2 = Double.longBitsToDouble(cells.get(base + M2));
+			if (cells.get(base + VERSION) == version) {
+				return new Snapshot(count, sum, min, max, mean, m2);
+			}
+		}
+	}
+
+	public static final class Snapshot {
+
+		private final long count;
+		private final long sum;
+		private final long min;
+		private final long max;
+		private final double mean;
+		private final double m2;
+
+		Snapshot(long count, long sum, long min, long max, double mean, double m2) {
+			this.count = count;
+			this.sum = sum;
+			this.min = min;
+			this.max = max;
+			this.mean = mean;
+			this.m2 = m2;
+		}
+
+		Snapshot merge(Snapshot other) {
+			if (other.count == 0) {
+				return this;
+			}
+			if (count == 0) {
+				return other;
+			}
+			long n = count + other.count;
+			double delta = other.mean - mean;
+			return new Snapshot(n, sum + other.sum,
+					Math.min(min, other.min), Math.max(max, other.max),
+					mean + delta * other.count / n,
+					m2 + other.m2 + delta * delta * count * other.count / n);
+		}
+
+		public long count() {
+			return count;
+		}
+
+		public long sum() {
+			return sum;
+		}
+
+		/**
+		 * 没有样本的时候为 Long.MAX_VALUE
+		 */
+		public long min() {
+			return min;
+		}
+
+		/**
+		 * 没有样本的时候为 Long.MIN_VALUE
+		 */
+		public long max() {
+			return max;
+		}
+
+		public double mean() {
+			return mean;
+		}
+
+		/**
+		 * 总体方差
+		 */
+		public double variance() {
+			return count == 0 ? 0 : m2 / count;
+		}
+
+		public double stddev() {
+			return Math.sqrt(variance());
+		}
+
+		@Override
+		public String toString() {
+			return String.format("count=%d, sum=%d, min=%d, max=%d, mean=%.2f, stddev=%.2f",
+					count, sum, min, max, mean, stddev());
+		}
+	}
+}
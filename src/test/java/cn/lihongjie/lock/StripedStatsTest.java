@@ -0,0 +1,177 @@
+package cn.lihongjie.lock;
+
+import org.hamcrest.core.Is;
+import org.junit.*;
+import org.junit.rules.Stopwatch;
+import org.junit.runner.Description;
+import org.nutz.log.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+
+import static org.nutz.log.Logs.get;
+
+/**
+ * Stopwatch 每个测试只记录一次耗时, 这里是很多线程同时记录每一次操作的耗时
+ *
+ * @author 982264618@qq.com
+ */
+public class StripedStatsTest {
+	private static Log logger = get();
+
+	private static final int threadCount = 10;
+	private static final int samplesPerThread = 100000;
+	private ExecutorService threadPool;
+
+
+	private static void logInfo(Description description, String status, long nanos) {
+		String testName = description.getMethodName();
+		logger.info(String.format("Test %s %s, spent %d microseconds",
+				testName, status, TimeUnit.NANOSECONDS.toMicros(nanos)));
+	}
+
+	@Rule
+	public Stopwatch stopwatch = new Stopwatch() {
+		@Override
+		protected void succeeded(long nanos, Description description) {
+			logInfo(description, "succeeded", nanos);
+		}
+
+		@Override
+		protected void failed(long nanos, Throwable e, Description description) {
+			logInfo(description, "failed", nanos);
+		}
+
+
+		@Override
+		protected void finished(long nanos, Description description) {
+//			logInfo(description, "finished", nanos);
+		}
+	};
+
+
+	@Before
+	public void setUp() throws Exception {
+		threadPool = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		threadPool.shutdownNow();
+	}
+
+
+	/**
+	 * 所有线程一共记录 1 到 n, 结果可以直接算出来
+	 * @throws Exception
+	 */
+	@Test
+	public void testStripedStatsConcurrent() throws Exception {
+
+		StripedStats stats = new StripedStats();
+
+		concurrentRecord(stats::record);
+
+		StripedStats.Snapshot snapshot = stats.snapshot();
+		logger.info(snapshot);
+		long n = (long) threadCount * samplesPerThread;
+		Assert.assertThat(snapshot.count(), Is.is(n));
+		Assert.assertThat(snapshot.sum(), Is.is(n * (n + 1) / 2));
+		Assert.assertThat(snapshot.min(), Is.is(1L));
+		Assert.assertThat(snapshot.max(), Is.is(n));
+		Assert.assertEquals((n + 1) / 2.0, snapshot.mean(), 1e-6);
+		Assert.assertEquals((n * n - 1) / 12.0, snapshot.variance(), 1e-6 * n * n);
+	}
+
+
+	/**
+	 * 最简单的实现, 所有线程串行在一个锁上
+	 * @throws Exception
+	 */
+	@Test
+	public void testSynchronizedStatsConcurrent() throws Exception {
+
+		long[] stats = {0, 0, Long.MAX_VALUE, Long.MIN_VALUE};
+
+		concurrentRecord(value -> {
+			synchronized (stats) {
+				stats[0]++;
+				stats[1] += value;
+				stats[2] = Math.min(stats[2], value);
+				stats[3] = Math.max(stats[3], value);
+			}
+		});
+
+		Assert.assertThat(stats[0], Is.is((long) threadCount * samplesPerThread));
+	}
+
+
+	/**
+	 * 每个样本都是 1, 任何时候读到的快照 sum 都必须等于 count
+	 * @throws Exception
+	 */
+	@Test
+	public void testSnapshotConsistent() throws Exception {
+
+		StripedStats stats = new StripedStats();
+		AtomicBoolean done = new AtomicBoolean();
+		int[] snapshots = {0};
+
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		Thread reader = new Thread(() -> {
+			while (!done.get()) {
+				StripedStats.Snapshot snapshot = stats.snapshot();
+				if (snapshot.sum() != snapshot.count()) {
+					failure.set(new AssertionError(snapshot.toString()));
+				}
+				snapshots[0]++;
+			}
+		});
+		reader.start();
+
+		concurrentRecord(value -> stats.record(1));
+
+		done.set(true);
+		reader.join();
+		logger.info(String.format("%d snapshots", snapshots[0]));
+		Assert.assertNull(failure.get());
+	}
+
+
+	/**
+	 * 每个线程记录一段连续的值, 合起来是 1 到 n
+	 */
+	private void concurrentRecord(LongConsumer recorder) throws InterruptedException {
+
+		CountDownLatch latch = new CountDownLatch(threadCount);
+		for (int i = 0; i < threadCount; i++) {
+
+
+			long start = (long) i * samplesPerThread + 1;
+			threadPool.submit(() -> {
+
+
+				for (long j = start; j < start + samplesPerThread; j++) {
+
+					recorder.accept(j);
+
+
+				}
+
+				latch.countDown();
+
+			});
+
+
+		}
+
+
+		latch.await();
+	}
+}
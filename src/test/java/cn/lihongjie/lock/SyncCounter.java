@@ -6,25 +6,29 @@ package cn.lihongjie.lock;
 public class SyncCounter implements Counter {
 
 
-	private int c;
+	private long c;
 
 	public SyncCounter(int c) {
 		this.c = c;
 	}
 
 	@Override
-	public synchronized int get() {
+	public synchronized long getLong() {
 		return c;
 	}
 
-
 	@Override
-	public synchronized void add(int i) {
+	public synchronized void addLong(long i) {
 
 		c = c + i;
 	}
 
-
+	@Override
+	public synchronized long sumThenReset() {
+		long c = this.c;
+		this.c = 0;
+		return c;
+	}
 
 
 }
@@ -0,0 +1,32 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * test and set 自旋锁
+ * <p>
+ * 每次尝试都是一次 getAndSet, 即使锁被占用也会写共享的缓存行, 所有自旋的线程都在让这个缓存行失效
+ *
+ * @author 982264618@qq.com
+ */
+public class TASLock extends AbstractSpinLock {
+
+	private final AtomicBoolean state = new AtomicBoolean();
+
+	@Override
+	protected boolean tryAcquire() {
+		return !state.getAndSet(true);
+	}
+
+	@Override
+	protected void acquire() {
+		for (int i = 0; state.getAndSet(true); i++) {
+			spin(i);
+		}
+	}
+
+	@Override
+	protected void release() {
+		state.set(false);
+	}
+}
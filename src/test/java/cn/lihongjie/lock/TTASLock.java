@@ -0,0 +1,64 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * test test and set 自旋锁, 带指数退避
+ * <p>
+ * 先读锁的状态, 只有看到锁是空闲的才去 getAndSet, 等待的时候只读本地缓存, 不会让缓存行失效.
+ * getAndSet 失败说明有别的线程同时看到了锁空闲, 这时候随机退避一段时间, 退避的上限每次翻倍, 避免大家一起再冲上来
+ *
+ * @author 982264618@qq.com
+ */
+public class TTASLock extends AbstractSpinLock {
+
+	private final AtomicBoolean state = new AtomicBoolean();
+	private final long minBackoffNanos;
+	private final long maxBackoffNanos;
+
+	public TTASLock() {
+		this(1000, 100000);
+	}
+
+	/**
+	 * 退避时间在 (0, limit] 之间随机, limit 从 minBackoffNanos 开始每次翻倍, 最大 maxBackoffNanos. 两个值都必须是正数, 并且 max 不小于 min
+	 */
+	public TTASLock(long minBackoffNanos, long maxBackoffNanos) {
+		if (minBackoffNanos <= 0) {
+			throw new IllegalArgumentException("minBackoffNanos must be positive: " + minBackoffNanos);
+		}
+		if (maxBackoffNanos < minBackoffNanos) {
+			throw new IllegalArgumentException("maxBackoffNanos " + maxBackoffNanos + " is less than minBackoffNanos " + minBackoffNanos);
+		}
+		this.minBackoffNanos = minBackoffNanos;
+		this.maxBackoffNanos = maxBackoffNanos;
+	}
+
+	@Override
+	protected boolean tryAcquire() {
+		return !state.get() && !state.getAndSet(true);
+	}
+
+	@Override
+	protected void acquire() {
+		long limit = minBackoffNanos;
+		for (; ; ) {
+			for (int i = 0; state.get(); i++) {
+				spin(i);
+			}
+			if (!state.getAndSet(true)) {
+				return;
+			}
+			LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(limit) + 1);
+			// 先和 max / 2 比较, limit * 2 不会溢出
+			limit = limit > maxBackoffNanos / 2 ? maxBackoffNanos : limit * 2;
+		}
+	}
+
+	@Override
+	protected void release() {
+		state.set(false);
+	}
+}
@@ -0,0 +1,41 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 公平的排号自旋锁
+ * <p>
+ * 每个线程取一个号, 然后等待叫号, 先取号的先拿到锁, 不会有线程一直拿不到锁.
+ * 但是所有等待的线程都在读同一个 serving, 每次释放锁都会让所有等待线程的缓存行失效
+ * <p>
+ * 号码是 int, 溢出之后依然正确, 因为只比较是否相等
+ * <p>
+ * 取了号就不能放弃, 所以 tryLock 和 lockInterruptibly 不排号, 只在没有人排队的时候抢锁
+ *
+ * @author 982264618@qq.com
+ */
+public class TicketLock extends AbstractSpinLock {
+
+	private final AtomicInteger next = new AtomicInteger();
+	private volatile int serving;
+
+	@Override
+	protected boolean tryAcquire() {
+		int current = serving;
+		return next.compareAndSet(current, current + 1);
+	}
+
+	@Override
+	protected void acquire() {
+		int ticket = next.getAndIncrement();
+		for (int i = 0; serving != ticket; i++) {
+			spin(i);
+		}
+	}
+
+	@Override
+	protected void release() {
+		// 只有持有锁的线程会写 serving
+		serving = serving + 1;
+	}
+}
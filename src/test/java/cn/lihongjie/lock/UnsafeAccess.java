@@ -0,0 +1,28 @@
+package cn.lihongjie.lock;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+
+/**
+ * JAVA 8 没有 VarHandle, 内存屏障和堆外的原子操作只能通过 Unsafe
+ *
+ * @author 982264618@qq.com
+ */
+final class UnsafeAccess {
+
+	static final Unsafe UNSAFE;
+
+	static {
+		try {
+			Field field = Unsafe.class.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			UNSAFE = (Unsafe) field.get(null);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private UnsafeAccess() {
+	}
+}
@@ -0,0 +1,132 @@
+package cn.lihongjie.lock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * 滑动窗口计数器, 回答 "最近 N 秒有多少个事件" 和 "每秒多少个事件"
+ * <p>
+ * 定时采样 SyncCounter.get() 再做差值既昂贵又不准, 这里把窗口分成固定数量的时间桶, 组成一个环:
+ * 写的时候根据当前时间算出桶的序号, 如果桶里存的是过期的序号, 那么在同一次 CAS 里把它换成当前序号并从 0 开始计数.
+ * 没有后台线程, add 不分配内存, 每个计数器的内存是固定的
+ * <p>
+ * 每个桶是一个 long, 高 24 位是桶序号的低位, 低 40 位是计数(有符号), 序号和计数在一次 CAS 里一起更新, 所以轮转的时候不会丢失增量.
+ * 一个桶连续 2^24 个周期没有被写过才可能把旧数据误认为新数据
+ *
+ * @author 982264618@qq.com
+ */
+public class WindowCounter implements Counter {
+
+	private static final int COUNT_BITS = 40;
+	private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+	private static final long STAMP_MASK = (1L << (64 - COUNT_BITS)) - 1;
+
+	private final AtomicLongArray buckets;
+	private final long bucketNanos;
+	private final LongSupplier clock;
+
+	public WindowCounter(long window, TimeUnit unit, int bucketCount) {
+		this(window, unit, bucketCount, System::nanoTime);
+	}
+
+	WindowCounter(long window, TimeUnit unit, int bucketCount, LongSupplier clock) {
+		if (bucketCount < 1) {
+			throw new IllegalArgumentException("bucketCount must be positive: " + bucketCount);
+		}
+		this.bucketNanos = Math.max(1, unit.toNanos(window) / bucketCount);
+		this.buckets = new AtomicLongArray(bucketCount);
+		this.clock = clock;
+	}
+
+	private static long stamp(long slot) {
+		return slot & STAMP_MASK;
+	}
+
+	private static long pack(long slot, long count) {
+		return (stamp(slot) << COUNT_BITS) | (count & COUNT_MASK);
+	}
+
+	private static long count(long bucket) {
+		return (bucket << (64 - COUNT_BITS)) >> (64 - COUNT_BITS);
+	}
+
+	private long slot() {
+		// nanoTime 可能是负数
+		return Math.floorDiv(clock.getAsLong(), bucketNanos);
+	}
+
+	private int index(long slot) {
+		return (int) Math.floorMod(slot, (long) buckets.length());
+	}
+
+	/**
+	 * 窗口内的事件数, 当前这个桶只过去了一部分, 所以实际覆盖的时间在 (window - bucket, window] 之间
+	 */
+	@Override
+	public long getLong() {
+		long current = slot();
+		int n = buckets.length();
+		long sum = 0;
+		for (int i = 0; i < n; i++) {
+			long slot = current - i;
+			long bucket = buckets.get(index(slot));
+			if (bucket >>> COUNT_BITS == stamp(slot)) {
+				sum += count(bucket);
+			}
+		}
+		return sum;
+	}
+
+	@Override
+	public void addLong(long i) {
+		long slot = slot();
+		for (; ; ) {
+			int index = index(slot);
+			long bucket = buckets.get(index);
+			long count;
+			long behind = ((stamp(slot) - (bucket >>> COUNT_BITS)) << COUNT_BITS) >> COUNT_BITS;
+			if (behind == 0) {
+				count = count(bucket);
+			} else if (behind > 0) {
+				// 桶里是过期的数据, 直接从 0 开始
+				count = 0;
+			} else {
+				// 读取时间之后被挂起了, 桶已经被别人轮转到了更新的周期, 重新读取时间
+				long now = slot();
+				if (now != slot) {
+					slot = now;
+					continue;
+				}
+				// 时间没有变, 说明桶里是序号回绕之前的数据
+				count = 0;
+			}
+			if (buckets.compareAndSet(index, bucket, pack(slot, count + i))) {
+				return;
+			}
+		}
+	}
+
+	@Override
+	public long sumThenReset() {
+		long current = slot();
+		int n = buckets.length();
+		long sum = 0;
+		for (int i = 0; i < n; i++) {
+			long slot = current - i;
+			long bucket = buckets.getAndSet(index(slot), 0);
+			if (bucket >>> COUNT_BITS == stamp(slot)) {
+				sum += count(bucket);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * 窗口内平均每个时间单位的事件数
+	 */
+	public double rate(TimeUnit unit) {
+		long windowNanos = bucketNanos * buckets.length();
+		return (double) getLong() * unit.toNanos(1) / windowNanos;
+	}
+}
@@ -0,0 +1,91 @@
+package cn.lihongjie.lock;
+
+import org.hamcrest.core.Is;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 用一个假的时钟检查时间桶的轮转
+ *
+ * @author 982264618@qq.com
+ */
+public class WindowCounterTest {
+
+	private final AtomicLong now = new AtomicLong();
+
+	private WindowCounter counter = new WindowCounter(10, TimeUnit.SECONDS, 10, now::get);
+
+	private void advance(long time, TimeUnit unit) {
+		now.addAndGet(unit.toNanos(time));
+	}
+
+	@Test
+	public void testExpire() throws Exception {
+
+		counter.add(5);
+		advance(5, TimeUnit.SECONDS);
+		counter.add(3);
+		Assert.assertThat(counter.getLong(), Is.is(8L));
+
+		// 第一个桶滑出窗口
+		advance(5500, TimeUnit.MILLISECONDS);
+		Assert.assertThat(counter.getLong(), Is.is(3L));
+
+		advance(10, TimeUnit.SECONDS);
+		Assert.assertThat(counter.getLong(), Is.is(0L));
+	}
+
+
+	/**
+	 * 写的时候发现桶里是上一圈的数据, 在同一次 CAS 里清零
+	 * @throws Exception
+	 */
+	@Test
+	public void testRotateOnWrite() throws Exception {
+
+		counter.add(7);
+		advance(10, TimeUnit.SECONDS);
+		counter.add(1);
+
+		Assert.assertThat(counter.getLong(), Is.is(1L));
+	}
+
+
+	@Test
+	public void testRate() throws Exception {
+
+		for (int i = 0; i < 10; i++) {
+			counter.add(100);
+			advance(1, TimeUnit.SECONDS);
+		}
+		// 最老的桶刚好滑出窗口
+		Assert.assertThat(counter.rate(TimeUnit.SECONDS), Is.is(90.0));
+	}
+
+
+	@Test
+	public void testNegativeClock() throws Exception {
+
+		now.set(-TimeUnit.SECONDS.toNanos(3));
+		counter.add(2);
+		advance(5, TimeUnit.SECONDS);
+		counter.add(2);
+
+		Assert.assertThat(counter.getLong(), Is.is(4L));
+	}
+
+
+	@Test
+	public void testSumThenReset() throws Exception {
+
+		counter.add(2);
+		advance(1, TimeUnit.SECONDS);
+		counter.addAll(new int[]{1, 2, 3});
+
+		Assert.assertThat(counter.sumThenReset(), Is.is(8L));
+		Assert.assertThat(counter.getLong(), Is.is(0L));
+	}
+}